@@ -0,0 +1,111 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+/*
+Squares attacked by pieces, as 64-bit sets with bit y*8+x standing for the square [y][x] of a position.
+Knight and king attacks are looked up. Sliding attacks are built from precalculated rays: a ray is cut short at its first occupied square, found from the lowest or highest set bit of the
+occupied squares along it, depending on whether the ray runs towards higher or lower squares.
+The evaluation uses these to score mobility and the attacks on each king's surroundings from a single set per piece, instead of walking the board once for each.
+*/
+public class Attacks {
+    //Steps of each direction, first the four towards higher squares, then the four towards lower ones
+    private static final int[] DIRECTION_X = {1, 0, 1, -1, -1, 0, -1, 1};
+    private static final int[] DIRECTION_Y = {0, 1, 1, 1, 0, -1, -1, -1};
+    private static final int[] ROOK_DIRECTIONS = {0, 1, 4, 5};
+    private static final int[] BISHOP_DIRECTIONS = {2, 3, 6, 7};
+
+    private static final long[] KNIGHT = new long[64];
+    private static final long[] KING = new long[64];
+    private static final long[][] RAYS = new long[8][64]; //All squares from a square to the edge of the board in each direction, not including the square itself
+
+    static
+    {
+        int[][] knightSteps = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+
+        for (int square = 0; square < 64; square++)
+        {
+            int x = square & 7;
+            int y = square >> 3;
+
+            for (int[] step : knightSteps)
+                KNIGHT[square] |= bit(x+step[0], y+step[1]);
+
+            for (int direction = 0; direction < 8; direction++)
+            {
+                KING[square] |= bit(x+DIRECTION_X[direction], y+DIRECTION_Y[direction]);
+
+                for (int i = 1; i < 8; i++)
+                    RAYS[direction][square] |= bit(x+DIRECTION_X[direction]*i, y+DIRECTION_Y[direction]*i);
+            }
+        }
+    }
+
+    private Attacks() {} //Not instantiated
+
+    //Set holding a single square, or nothing if it is off the board
+    private static long bit(int x, int y)
+    {
+        return x >= 0 && x < 8 && y >= 0 && y < 8 ? 1L << (y*8+x) : 0;
+    }
+
+    public static long knight(int square)
+    {
+        return KNIGHT[square];
+    }
+
+    public static long king(int square)
+    {
+        return KING[square];
+    }
+
+    public static long bishop(int square, long occupied)
+    {
+        long attacks = 0;
+
+        for (int direction : BISHOP_DIRECTIONS)
+            attacks |= ray(direction, square, occupied);
+
+        return attacks;
+    }
+
+    public static long rook(int square, long occupied)
+    {
+        long attacks = 0;
+
+        for (int direction : ROOK_DIRECTIONS)
+            attacks |= ray(direction, square, occupied);
+
+        return attacks;
+    }
+
+    public static long queen(int square, long occupied)
+    {
+        return bishop(square, occupied) | rook(square, occupied);
+    }
+
+    //The squares of a ray up to and including its first occupied square
+    private static long ray(int direction, int square, long occupied)
+    {
+        long ray = RAYS[direction][square];
+        long blockers = ray & occupied;
+
+        if (blockers == 0)
+            return ray;
+
+        int blocker = direction < 4 ? Long.numberOfTrailingZeros(blockers) : 63-Long.numberOfLeadingZeros(blockers);
+
+        return ray ^ RAYS[direction][blocker];
+    }
+
+    //The squares around a king and the king's own square
+    public static long kingZone(int square)
+    {
+        return KING[square] | 1L << square;
+    }
+}
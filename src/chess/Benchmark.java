@@ -0,0 +1,565 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.LinkedList;
+import java.util.Random;
+
+/*
+Command line benchmarks, run without the game window: java -Djava.awt.headless=true --add-modules jdk.incubator.vector -cp <classes> chess.Benchmark <command> [arguments]
+Without --add-modules jdk.incubator.vector, the evaluators fall back to their scalar loops (see VectorKernels).
+
+mate [budget] [threads]
+    Solves a suite of mate problems with the proof-number mate solver, within a node budget (default 5000000), and compares it with the alpha-beta search asked for the same mate.
+
+eval [positions] [seconds]
+    Measures the static evaluation's throughput, in evaluations per second, over positions from random games (default 10000), for a given time (default 5) after a warm-up. The evaluation cache is bypassed.
+
+nnue [weights] [positions] [seconds]
+    Compares the evaluations per second of the neural network with the handcrafted evaluation, scoring every move from positions of random games (default 10000) as the search's leaves are scored:
+    the move is made, evaluated and unmade, the network updating its accumulators from the position's. The network is run with its scalar loops and, where the module is available, its Vector API
+    kernels, whose scores are checked against the scalar ones. Each is run for a given time (default 5 seconds). Without a weights file, or with "random", a network of random weights with 256 hidden
+    values stands in, which costs the same to run as a trained one.
+
+batch [positions] [seconds]
+    Compares the material and piece-square scores per second of EvaluationBatch, over blocks of positions from random games (default 100000), with the sums calculated one board at a time by
+    Evaluation.initialize. The batch is run with its scalar loop and, where it is supported, its vector kernel. Each is run for a given time (default 5 seconds) after a warm-up, and the batch's
+    scores are checked against those found one board at a time.
+
+stop [trials] [bound]
+    Checks that a search stopped from another thread returns within a bound in milliseconds (default 50). Each trial (default 20) starts an unlimited search of a tactical position and stops it
+    after a random delay of up to two seconds. Exits with status 1 if any search takes longer than the bound to return, fails, or does not start or return within STOP_TIMEOUT_FACTOR times the bound.
+
+lazy [nodes]
+    Searches a suite of tactical positions to a node limit (default 500000) with and without lazy evaluation, comparing the moves found, the speed and the share of leaves evaluated lazily.
+*/
+public class Benchmark {
+    //Mate problems: FEN, the length of the shortest mate in moves (0 if there is none, -1 if there is one of unknown length) and a description
+    private static final String[][] MATE_SUITE = {
+        {"6k1/5ppp/8/8/8/8/8/R5K1 w - - 0 1", "1", "Back rank mate"},
+        {"6rk/6pp/8/6N1/8/8/8/6K1 w - - 0 1", "1", "Smothered mate"},
+        {"r1bqkb1r/pppp1ppp/2n2n2/4p2Q/2B1P3/8/PPPP1PPP/RNB1K1NR w KQkq - 4 4", "1", "Scholar's mate"},
+        {"k7/8/8/8/8/8/7R/4K1R1 w - - 0 1", "2", "Rook ladder"},
+        {"4k3/8/3K4/8/8/8/8/7R w - - 0 1", "2", "King and rook"},
+        {"8/8/1k6/8/8/8/R7/1R4K1 w - - 0 1", "2", "Two rooks"},
+        {"r2qkb1r/pp2nppp/3p4/2pNN1B1/2BnP3/3P4/PPP2PPP/R2bK2R w KQkq - 1 1", "2", "Knight sacrifice"},
+        {"5r1k/6pp/8/3Q2N1/8/8/8/6K1 w - - 0 1", "4", "Philidor's legacy"},
+        {"8/8/8/3k4/8/8/R7/1R4K1 w - - 0 1", "-1", "Two rooks, centralized king"},
+        {"1k6/8/8/8/8/8/R7/1R4K1 b - - 0 1", "0", "Lone king"},
+        {"7k/5Q2/6K1/8/8/8/8/8 b - - 0 1", "0", "Stalemated"},
+    };
+
+    //Tactical problems: FEN, the best move and a description
+    private static final String[][] TACTICS_SUITE = {
+        {"2rr3k/pp3pp1/1nnqbN1p/3pN3/2pP4/2P3Q1/PPB4P/R4RK1 w - - 0 1", "g3-g6", "WAC 1"},
+        {"8/7p/5k2/5p2/p1p2P2/Pr1pPK2/1P1R3P/8 b - - 0 1", "b3-b2", "WAC 2"},
+        {"5rk1/1ppb3p/p1pb4/6q1/3P1p1r/2P1R2P/PP1BQ1P1/5RKN w - - 0 1", "e3-g3", "WAC 3"},
+        {"r1bq2rk/pp3pbp/2p1p1pQ/7P/3P4/2PB1N2/PP3PPR/2KR4 w - - 0 1", "h6-h7", "WAC 4"},
+        {"5k2/6pp/p1qN4/1p1p4/3P4/2PKP2Q/PP3r2/3R4 b - - 0 1", "c6-c4", "WAC 5"},
+        {"7k/p7/1R5K/6r1/6p1/6P1/8/8 w - - 0 1", "b6-b7", "WAC 6"},
+        {"rnbqkb1r/pppp1ppp/8/4P3/6n1/7P/PPPNPPP1/R1BQKBNR b KQkq - 0 1", "g4-e3", "WAC 7"},
+        {"r4q1k/p2bR1rp/2p2Q1N/5p2/5p2/2P5/PP3PPP/R5K1 w - - 0 1", "e7-f7", "WAC 8"},
+        {"3q1rk1/p4pp1/2pb3p/3p4/6Pr/1PNQ4/P1PB1PP1/4RRK1 b - - 0 1", "d6-h2", "WAC 9"},
+        {"2br2k1/2q3rn/p2NppQ1/2p1P3/Pp5R/4P3/1P3PPP/3R2K1 w - - 0 1", "h4-h7", "WAC 10"},
+    };
+
+    private static final long ALPHA_BETA_TIME = 60000; //Longest time the alpha-beta search is given for each problem, in milliseconds
+    
+    private static final long STOP_TIMEOUT_FACTOR = 20; //A search not started, or still running after being stopped, this many times the bound later is given up on, failing the check
+    private static final long POSITION_SEED = 1; //Seed of the random games positions are taken from, so that every run measures the same positions
+
+    public static void main(String[] args)
+    {
+        String command = args.length > 0 ? args[0] : "";
+
+        switch (command)
+        {
+            case "mate":
+                mate(args.length > 1 ? Long.parseLong(args[1]) : 5000000, args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+                break;
+            case "stop":
+                if (!stop(args.length > 1 ? Integer.parseInt(args[1]) : 20, args.length > 2 ? Long.parseLong(args[2]) : 50))
+                    System.exit(1);
+                break;
+            case "lazy":
+                lazy(args.length > 1 ? Long.parseLong(args[1]) : 500000);
+                break;
+            case "nnue":
+                nnue(args.length > 1 ? args[1] : "random", args.length > 2 ? Integer.parseInt(args[2]) : 10000, args.length > 3 ? Integer.parseInt(args[3]) : 5);
+                break;
+            case "batch":
+                batch(args.length > 1 ? Integer.parseInt(args[1]) : 100000, args.length > 2 ? Integer.parseInt(args[2]) : 5);
+                break;
+            case "eval":
+                eval(args.length > 1 ? Integer.parseInt(args[1]) : 10000, args.length > 2 ? Integer.parseInt(args[2]) : 5);
+                break;
+            default:
+                System.out.println("Usage: chess.Benchmark mate [budget] [threads] | eval [positions] [seconds] | nnue [weights] [positions] [seconds] | batch [positions] [seconds] | stop [trials] [bound] | lazy [nodes]");
+        }
+    }
+
+    private static void mate(long budget, int threads)
+    {
+        MateSolver solver = new MateSolver(threads, MateSolver.DEFAULT_TABLE_BITS);
+        ComputerPlayer player = new ComputerPlayer(true);
+
+        long solverNodes = 0, solverTime = 0, alphaBetaNodes = 0, alphaBetaTime = 0;
+        int solved = 0;
+
+        System.out.println("Mate suite: " + MATE_SUITE.length + " problems, budget " + budget + " nodes, " + threads + " threads");
+        System.out.printf("%-30s %-6s %-10s %10s %8s %12s %8s%n", "Problem", "Mate", "Solver", "Nodes", "ms", "Alpha-beta", "ms");
+
+        for (String[] problem : MATE_SUITE)
+        {
+            char[][] position = Board.fromFen(problem[0]);
+            boolean isWhite = Board.isWhiteToMove(problem[0]);
+            int mateLength = Integer.parseInt(problem[1]);
+
+            MateSolver.Result result = solver.solve(position, isWhite, budget);
+            boolean correct = result.status == (mateLength != 0 ? MateSolver.Status.PROVEN : MateSolver.Status.DISPROVEN);
+
+            solverNodes += result.nodes;
+            solverTime += result.time;
+
+            if (correct)
+                solved++;
+
+            //The alpha-beta search is only given problems with a known mate, which it needs 2n plies to see
+            String alphaBeta = "-";
+            String alphaBetaMillis = "-";
+
+            if (mateLength > 0)
+            {
+                player.clearTranspositionTable();
+                long startTime = System.nanoTime();
+                Move move = player.search(position, isWhite, SearchLimits.mate(mateLength).setMoveTime(ALPHA_BETA_TIME));
+                long time = (System.nanoTime()-startTime)/1000000;
+                long nodes = player.getMetrics().getSearchNodes();
+                boolean found = (isWhite ? move.getValue() : -move.getValue()) >= ComputerPlayer.MATE_SCORE-(2*mateLength-1);
+
+                alphaBeta = nodes + (found ? "" : "*");
+                alphaBetaMillis = String.valueOf(time);
+                alphaBetaNodes += nodes;
+                alphaBetaTime += time;
+            }
+
+            System.out.printf("%-30s %-6s %-10s %10d %8d %12s %8s%n", problem[2], mateLength > 0 ? String.valueOf(mateLength) : mateLength < 0 ? "yes" : "none",
+                    result.status + (correct ? "" : "!"), result.nodes, result.time, alphaBeta, alphaBetaMillis);
+        }
+
+        System.out.println();
+        System.out.println("Solved " + solved + "/" + MATE_SUITE.length + ". Solver: " + solverNodes + " nodes, " + solverTime + " ms, " + solverNodes*1000/Math.max(solverTime, 1) + " nodes/s."
+                + " Alpha-beta: " + alphaBetaNodes + " nodes, " + alphaBetaTime + " ms.");
+        System.out.println("! marks a wrong or unresolved result, * an alpha-beta search which did not find the mate in time.");
+
+        solver.shutdown();
+    }
+
+    //Returns whether every search returned within the bound
+    private static boolean stop(int trials, long bound)
+    {
+        ComputerPlayer player = new ComputerPlayer(true);
+        Random random = new Random(POSITION_SEED);
+        long worst = 0, total = 0;
+        int failures = 0, returned = 0;
+        long timeout = Math.max(bound, 1)*STOP_TIMEOUT_FACTOR;
+
+        System.out.println("Stopping " + trials + " searches, bound " + bound + " ms");
+
+        for (int i = 0; i < trials; i++)
+        {
+            String fen = TACTICS_SUITE[i%TACTICS_SUITE.length][0];
+            long delay = 1 + random.nextInt(2000);
+            long[] returnTime = new long[1];
+            Throwable[] error = new Throwable[1];
+            long searches = player.getMetrics().getSearches();
+            Thread search = new Thread(() -> {
+                try {
+                    player.search(Board.fromFen(fen), Board.isWhiteToMove(fen), SearchLimits.infinite());
+                    returnTime[0] = System.nanoTime();
+                } catch (Throwable ex) {
+                    error[0] = ex;
+                }
+            }, "Stop benchmark search");
+
+            search.setDaemon(true);
+            search.start();
+
+            try {
+                //A stop is only meant for a search under way: one arriving before the search starts would be cleared by it
+                long waitEnd = System.nanoTime() + timeout*1000000;
+
+                while (player.getMetrics().getSearches() == searches && search.isAlive() && System.nanoTime() < waitEnd)
+                    Thread.sleep(1);
+
+                Thread.sleep(delay);
+                long stopTime = System.nanoTime();
+                player.stop();
+                search.join(timeout);
+
+                String name = TACTICS_SUITE[i%TACTICS_SUITE.length][2];
+
+                //Only a search seen to return normally has a latency: one still running, failed or never started fails the trial
+                if (search.isAlive() || error[0] != null || returnTime[0] == 0)
+                {
+                    failures++;
+                    System.out.printf("%-10s stopped after %5d ms, %s !%n", name, delay, search.isAlive() ? "still running" : error[0] != null ? "failed: " + error[0] : "did not return");
+
+                    if (error[0] != null)
+                        error[0].printStackTrace();
+
+                    if (search.isAlive()) //The player is still busy, so the remaining trials cannot use it
+                        break;
+
+                    continue;
+                }
+
+                long latency = (returnTime[0]-stopTime)/1000000;
+                boolean failed = latency > bound;
+
+                worst = Math.max(worst, latency);
+                total += latency;
+                returned++;
+
+                if (failed)
+                    failures++;
+
+                System.out.printf("%-10s stopped after %5d ms, returned in %4d ms%s%n", name, delay, latency, failed ? " !" : "");
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        System.out.println();
+        System.out.println((failures == 0 ? "Passed" : "Failed " + failures + "/" + trials) + ". Worst " + worst + " ms, mean " + total/Math.max(returned, 1) + " ms. ! marks a failed search.");
+
+        return failures == 0;
+    }
+
+    private static void lazy(long nodes)
+    {
+        ComputerPlayer player = new ComputerPlayer(true);
+        long[] totalNodes = new long[2], totalTime = new long[2];
+        int[] solved = new int[2];
+        int agreed = 0;
+
+        //Warm up both ways, so that neither is measured while it is being compiled
+        for (int i = 0; i < 2; i++)
+        {
+            player.setLazyEvaluation(i == 1);
+            player.search(Board.fromFen(TACTICS_SUITE[0][0]), Board.isWhiteToMove(TACTICS_SUITE[0][0]), SearchLimits.nodes(nodes));
+        }
+
+        System.out.println("Tactics suite: " + TACTICS_SUITE.length + " problems, " + nodes + " nodes each");
+        System.out.printf("%-10s %-8s %-8s %10s %-8s %10s %8s%n", "Problem", "Best", "Full", "Nodes/s", "Lazy", "Nodes/s", "Lazy %");
+
+        for (String[] problem : TACTICS_SUITE)
+        {
+            char[][] position = Board.fromFen(problem[0]);
+            boolean isWhite = Board.isWhiteToMove(problem[0]);
+            String[] moves = new String[2];
+            long[] speed = new long[2];
+            double lazyRate = 0;
+
+            //First with the full evaluation at every leaf, then lazily
+            for (int i = 0; i < 2; i++)
+            {
+                player.setLazyEvaluation(i == 1);
+                player.clearTranspositionTable();
+
+                long exitsBefore = player.getMetrics().getLazyEvalExits(), leavesBefore = player.getMetrics().getLeafNodes();
+                long startTime = System.nanoTime();
+                Move move = player.search(position, isWhite, SearchLimits.nodes(nodes));
+                long time = Math.max((System.nanoTime()-startTime)/1000000, 1);
+                long searched = player.getMetrics().getSearchNodes();
+
+                moves[i] = String.valueOf(move);
+                speed[i] = searched*1000/time;
+                totalNodes[i] += searched;
+                totalTime[i] += time;
+
+                if (moves[i].equals(problem[1]))
+                    solved[i]++;
+
+                if (i == 1)
+                    lazyRate = (double)(player.getMetrics().getLazyEvalExits()-exitsBefore)/Math.max(player.getMetrics().getLeafNodes()-leavesBefore, 1);
+            }
+
+            if (moves[0].equals(moves[1]))
+                agreed++;
+
+            System.out.printf("%-10s %-8s %-8s %10d %-8s %10d %7.1f%n", problem[2], problem[1], moves[0] + (moves[0].equals(problem[1]) ? "" : "!"), speed[0],
+                    moves[1] + (moves[1].equals(problem[1]) ? "" : "!"), speed[1], lazyRate*100);
+        }
+
+        System.out.println();
+        System.out.println("Full evaluation: solved " + solved[0] + "/" + TACTICS_SUITE.length + ", " + totalNodes[0]*1000/Math.max(totalTime[0], 1) + " nodes/s."
+                + " Lazy evaluation: solved " + solved[1] + "/" + TACTICS_SUITE.length + ", " + totalNodes[1]*1000/Math.max(totalTime[1], 1) + " nodes/s."
+                + " Same move in " + agreed + "/" + TACTICS_SUITE.length + ".");
+        System.out.println("! marks a move other than the best one.");
+    }
+
+    private static void eval(int count, int seconds)
+    {
+        ComputerPlayer player = new ComputerPlayer(true);
+        char[][][] positions = randomPositions(count, null);
+        long checksum = 0;
+
+        //Warm up, so that the measurement is of compiled code
+        for (int i = 0; i < 5; i++)
+        {
+            for (char[][] position : positions)
+                checksum += player.evaluate(position);
+        }
+
+        long evaluations = 0;
+        long startTime = System.nanoTime();
+        long endTime = startTime + seconds*1000000000L;
+        long time;
+
+        do
+        {
+            for (char[][] position : positions)
+                checksum += player.evaluate(position);
+
+            evaluations += positions.length;
+            time = System.nanoTime();
+        } while (time < endTime);
+
+        long millis = Math.max((time-startTime)/1000000, 1);
+
+        System.out.println("Evaluated " + evaluations + " positions (" + positions.length + " distinct) in " + millis + " ms: " + evaluations*1000/millis + " evaluations/s. Checksum " + checksum);
+    }
+
+    private static void nnue(String weights, int count, int seconds)
+    {
+        Nnue network;
+
+        try {
+            network = weights.equals("random") ? Nnue.random(256, POSITION_SEED) : Nnue.load(Paths.get(weights));
+        } catch (IOException ex) {
+            System.out.println("Could not load " + weights + ": " + ex.getMessage());
+            return;
+        }
+
+        ComputerPlayer player = new ComputerPlayer(true);
+        Nnue.Accumulator accumulator = network.newAccumulator(1);
+        boolean[] whiteToMove = new boolean[count];
+        char[][][] positions = randomPositions(count, whiteToMove);
+        Move[][] moves = new Move[count][];
+        int leaves = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            moves[i] = Board.getLegalMoves(positions[i], whiteToMove[i], false).toArray(new Move[0]);
+            leaves += moves[i].length;
+        }
+
+        int[][] networkScores = new int[2][leaves]; //Scores of the last pass, with the scalar loops and the kernels
+
+        System.out.println("Network of " + network.getHidden() + " hidden values, " + count + " positions, " + leaves + " leaves");
+
+        if (!VectorKernels.AVAILABLE)
+            System.out.println("Vector kernels not available, run with --add-modules jdk.incubator.vector");
+
+        for (int evaluator = 0; evaluator < (VectorKernels.AVAILABLE ? 3 : 2); evaluator++) //The handcrafted evaluation, the network's scalar loops and its kernels
+        {
+            long evaluations = 0;
+            long checksum = 0;
+            long startTime = 0;
+            long endTime = Long.MAX_VALUE;
+            long time;
+            int pass = 0;
+
+            network.setVectorized(evaluator == 2);
+
+            do
+            {
+                int leaf = 0;
+
+                if (pass++ == 3) //Measure from the fourth pass on, after a warm-up
+                {
+                    evaluations = 0;
+                    startTime = System.nanoTime();
+                    endTime = startTime + seconds*1000000000L;
+                }
+
+                for (int i = 0; i < count; i++)
+                {
+                    char[][] position = positions[i];
+
+                    if (evaluator > 0)
+                        accumulator.refresh(position);
+
+                    for (Move move : moves[i])
+                    {
+                        Board.makeMove(position, move, false, 0);
+
+                        if (evaluator > 0)
+                        {
+                            accumulator.update(1, position, move);
+                            networkScores[evaluator-1][leaf] = accumulator.evaluate();
+                            checksum += networkScores[evaluator-1][leaf++];
+                        }
+                        else
+                            checksum += player.evaluate(position);
+
+                        Board.unmakeMove(position, move, 0);
+                    }
+
+                    evaluations += moves[i].length;
+                }
+
+                time = System.nanoTime();
+            } while (time < endTime);
+
+            long millis = Math.max((time-startTime)/1000000, 1);
+
+            System.out.println((evaluator == 0 ? "Handcrafted:    " : evaluator == 1 ? "Network scalar: " : "Network vector: ") + evaluations*1000/millis + " evaluations/s (" + evaluations + " in "
+                    + millis + " ms, checksum " + checksum + ")");
+        }
+
+        if (VectorKernels.AVAILABLE)
+        {
+            int mismatches = 0;
+
+            for (int i = 0; i < leaves; i++)
+            {
+                if (networkScores[0][i] != networkScores[1][i])
+                    mismatches++;
+            }
+
+            System.out.println(mismatches == 0 ? "Scores match" : mismatches + " scores differ");
+        }
+    }
+
+    private static void batch(int count, int seconds)
+    {
+        char[][][] positions = randomPositions(count, null);
+        EvaluationBatch[] batches = new EvaluationBatch[(count+EvaluationBatch.DEFAULT_CAPACITY-1)/EvaluationBatch.DEFAULT_CAPACITY];
+        int[][] batchScores = new int[batches.length][EvaluationBatch.DEFAULT_CAPACITY];
+        int[] scores = new int[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            int block = i/EvaluationBatch.DEFAULT_CAPACITY;
+
+            if (batches[block] == null)
+                batches[block] = new EvaluationBatch(EvaluationBatch.DEFAULT_CAPACITY);
+
+            batches[block].add(positions[i]);
+        }
+
+        System.out.println(count + " positions in " + batches.length + " blocks of up to " + EvaluationBatch.DEFAULT_CAPACITY);
+
+        if (!EvaluationBatch.isVectorSupported())
+            System.out.println("Vector kernel not supported" + (VectorKernels.AVAILABLE ? " without 512-bit vectors" : ", run with --add-modules jdk.incubator.vector"));
+
+        for (int evaluator = 0; evaluator < (EvaluationBatch.isVectorSupported() ? 3 : 2); evaluator++) //One board at a time, the batch's scalar loop and its vector kernel
+        {
+            long evaluations = 0;
+            long checksum = 0;
+            long startTime = 0;
+            long endTime = Long.MAX_VALUE;
+            long time;
+            int pass = 0;
+
+            do
+            {
+                if (pass++ == 3) //Measure from the fourth pass on, after a warm-up
+                {
+                    evaluations = 0;
+                    startTime = System.nanoTime();
+                    endTime = startTime + seconds*1000000000L;
+                }
+
+                if (evaluator == 0)
+                {
+                    for (int i = 0; i < count; i++)
+                    {
+                        char[][] position = positions[i];
+
+                        Evaluation.initialize(position);
+                        scores[i] = Evaluation.taper(Evaluation.getOpeningSum(position), Evaluation.getEndgameSum(position), Evaluation.getPhase(position));
+                        checksum += scores[i];
+                    }
+                }
+                else
+                {
+                    for (int block = 0; block < batches.length; block++)
+                    {
+                        batches[block].setVectorized(evaluator == 2);
+                        batches[block].evaluate(batchScores[block]);
+
+                        for (int i = 0; i < batches[block].getSize(); i++)
+                            checksum += batchScores[block][i];
+                    }
+                }
+
+                evaluations += count;
+                time = System.nanoTime();
+            } while (time < endTime);
+
+            long millis = Math.max((time-startTime)/1000000, 1);
+
+            System.out.println((evaluator == 0 ? "Per board:    " : evaluator == 1 ? "Batch scalar: " : "Batch vector: ") + evaluations*1000/millis + " positions/s (" + evaluations + " in " + millis
+                    + " ms, checksum " + checksum + ")");
+
+            if (evaluator > 0)
+            {
+                int mismatches = 0;
+
+                for (int i = 0; i < count; i++)
+                {
+                    if (batchScores[i/EvaluationBatch.DEFAULT_CAPACITY][i%EvaluationBatch.DEFAULT_CAPACITY] != scores[i])
+                        mismatches++;
+                }
+
+                System.out.println(mismatches == 0 ? "Scores match" : mismatches + " scores differ");
+            }
+        }
+    }
+
+    //Plays random legal moves from the starting position, keeping the positions after the first few moves of each game. The side to move in each is stored in whiteToMove, unless it is null.
+    private static char[][][] randomPositions(int count, boolean[] whiteToMove)
+    {
+        Random random = new Random(POSITION_SEED);
+        char[][][] positions = new char[count][][];
+        int found = 0;
+
+        while (found < count)
+        {
+            char[][] position = Board.getBoardPosition();
+            boolean isWhite = true;
+
+            for (int ply = 0; ply < 120 && found < count; ply++)
+            {
+                LinkedList<Move> moves = Board.getLegalMoves(position, isWhite, false);
+
+                if (moves.isEmpty())
+                    break;
+
+                Board.makeMove(position, moves.get(random.nextInt(moves.size())), false, 0);
+                isWhite = !isWhite;
+
+                if (ply >= 8)
+                {
+                    if (whiteToMove != null)
+                        whiteToMove[found] = isWhite;
+
+                    positions[found++] = Board.cloneBoard(position);
+                }
+            }
+        }
+
+        return positions;
+    }
+}
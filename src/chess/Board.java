@@ -17,7 +17,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Random;
@@ -100,9 +99,7 @@ public class Board {
     
     private static char nextPromotion = 'q'; //What the next pawn that reaches the 8th rank will promote to
     
-    //private static final long[] reachedPositions = new long[30]; //Stores zobrist hashes of previous positions to detect 3-fold repetition. The value of 30 is abritrary, however it is exceedingly unlikely to reach 3-fold repetition over a span that large and would likely be missed in an OTB game anyway.
-    private static final HashSet<Long> reachedPositions = new HashSet<>();
-    private static final HashMap<Long, Integer> repeatedPositions = new HashMap<>();
+    private static final RepetitionHistory gameHistory = new RepetitionHistory(512); //Stores zobrist hashes of all positions reached in the game to detect 3-fold repetition
     
     
     private static final int[] POSITION = {120, 25}; //Position of main game board
@@ -130,12 +127,17 @@ public class Board {
         {' ', ' ', ' ', ' ', ' ', ' ', ' ', ' '},
         {'p', 'p', 'p', 'p', 'p', 'p', 'p', 'p'},
         {'r', 'n', 'b', 'q', 'k', 'b', 'n', 'r'},
-        {' ', '0', '0', '0', '0', '0', ' ', ' '} //Last line represents meta information. The first entry is for en-passant captures. Blank for no capture, number 0-7 to represent file of possible en-passant capture. Up to two pawns can execute an en-passant capture, but only one pawn may be thus captured.
-            //The second entry is for the number of repeated moves. The third entry is for the number of moves since capture or pawn move. The fourth entry is for whether or not the king has moved, 0 for neither king having moved, 1 for the white king only, 2 for the black king only, 3 for both kings
-            //The fifth and sixth are for whether the rooks have moved, queenside and kingside respectively. These work the same as the king. The seventh and eighth entries are placeholders
-            //and currently have no meaning.
+        {' ', '0', '0', '0', '0', '0', ' ', ' ', ' '} //Last line represents meta information. The first entry is for en-passant captures. Blank for no capture, number 0-7 to represent file of possible en-passant capture. Up to two pawns can execute an en-passant capture, but only one pawn may be thus captured.
+            //The second entry is for the number of repeated moves. The third entry is for the number of moves since capture or pawn move, counted in plies and stored as the character '0' plus the count. The fourth entry is for whether or not the king has moved, 0 for neither king having moved, 1 for the white king only, 2 for the black king only, 3 for both kings
+            //The fifth and sixth are for whether the rooks have moved, queenside and kingside respectively. These work the same as the king. The seventh and eighth entries hold the running
+            //material and piece-square sums of the evaluation (see Evaluation), and the ninth the game phase, which are filled in below.
     };
     
+    static
+    {
+        Evaluation.initialize(BOARD);
+    }
+    
     
     /*
     private static final char[][] BOARD = 
@@ -169,6 +171,13 @@ public class Board {
     
     private static long currentZobrist; //The zobrist hash of the current position
     
+    private static final long ZOBRIST_SEED = 0x5EEDC4E55L; //Fixed, so that hashes and the layout of the transposition table are the same in every run
+    
+    static
+    {
+        initiateZobrist(); //Generated when the class loads, so that positions can be hashed and searched without a board on screen
+    }
+    
     public Board(Display display)
     {
         //Associate string abbreviations of pieces with their images
@@ -196,7 +205,11 @@ public class Board {
         playerOneWon = false;
         playerTwoWon = false;
         
-        initiateZobrist(); //Generate zobrist values and calculate the initial zobrist hash
+        //Calculate the initial zobrist hash and start the game's history from it
+        currentZobrist = calculateZobrist(BOARD);
+        
+        gameHistory.clear();
+        gameHistory.push(currentZobrist, true);
                               
         
     }
@@ -248,10 +261,10 @@ public class Board {
         
     }
     
-    //Generates random values for zobrist values and initiates hash for starting position
+    //Generates random values for zobrist values
     private static void initiateZobrist()
     {
-        Random rand = new Random();
+        Random rand = new Random(ZOBRIST_SEED);
         
         for (int i = 0; i < 4; i++)
         {
@@ -274,8 +287,12 @@ public class Board {
                 }
             }
         }
-        
-        currentZobrist = calculateZobrist(BOARD);
+    }
+    
+    //Zobrist value of a pawn on a square, from which PawnTable builds the key of a pawn structure
+    public static long getPawnZobrist(boolean isWhite, int x, int y)
+    {
+        return zobristPieces[isWhite ? 0 : 6][y][x];
     }
     
     //Calculates the zobrist hash for a given position.
@@ -421,18 +438,18 @@ public class Board {
             if (clock.getWhiteTime() < 0) //Check if white has timed out
             {
                 isGameOver = true;
-                playerOneWon = false; //TODO: Implement draws by insufficient material in case of timeouts
-                playerTwoWon = true;
+                playerOneWon = false;
+                playerTwoWon = hasMatingMaterial(BOARD, false); //If black cannot possibly checkmate, the game is drawn instead
                 clock.stop();
-                System.out.println("Black wins.");
+                System.out.println(playerTwoWon ? "Black wins." : "The game is drawn.");
             }
             else if (clock.getBlackTime() < 0) //Check if black has timed out
             {
                 isGameOver = true;
-                playerOneWon = true;
+                playerOneWon = hasMatingMaterial(BOARD, true);
                 playerTwoWon = false;
                 clock.stop();
-                System.out.println("White wins.");
+                System.out.println(playerOneWon ? "White wins." : "The game is drawn.");
             }
 
             boolean checkPremoves = false;
@@ -452,6 +469,7 @@ public class Board {
                 currentZobrist = makeMove(BOARD, move, true, currentZobrist);
                 
                 player1.stopThinking(); //Tell player 1 to stop thinking about their next move
+                player2.opponentMoved(move); //Let player 2 check the move against the reply it was expecting
                 
                 if (!isGameOver)
                     player2.startThinking();
@@ -474,6 +492,7 @@ public class Board {
                 currentZobrist = makeMove(BOARD, move, true, currentZobrist);
 
                 player2.stopThinking();
+                player1.opponentMoved(move);
                 
                 if (!isGameOver)
                     player1.startThinking();
@@ -511,6 +530,7 @@ public class Board {
                         isWhiteTurn = !isWhiteTurn;
                         clock.flip();
                         humanPlayer.stopThinking();
+                        computerPlayer.opponentMoved(premove);
                         computerPlayer.startThinking();
                     }
                     else
@@ -820,16 +840,80 @@ public class Board {
     //Performs a deep copy of a board
     public static char[][] cloneBoard(char[][] board)
     {
-        char[][] newBoard = new char[9][8];
+        char[][] newBoard = new char[9][];
         
         for (int i = 0; i < 9; i++)
         {
-            System.arraycopy(board[i], 0, newBoard[i], 0, board[i].length);
+            newBoard[i] = board[i].clone(); //The meta row is longer than the others
         }
         
         return newBoard;
     }
     
+    /**
+     * Builds a position from Forsyth-Edwards Notation. The side to move is read separately by isWhiteToMove.
+     * Castling rights are recorded as the kings and rooks having moved, which is all the position can express.
+     * @param fen Piece placement, side to move, castling rights, en passant square and halfmove clock. Fields after the first are optional.
+     */
+    public static char[][] fromFen(String fen)
+    {
+        String[] fields = fen.trim().split("\\s+");
+        String[] ranks = fields[0].split("/");
+        char[][] position = new char[9][8];
+        position[8] = new char[BOARD[8].length];
+
+        if (ranks.length != 8)
+            throw new IllegalArgumentException("Expected 8 ranks in " + fen);
+
+        for (int y = 0; y < 8; y++)
+        {
+            int x = 0;
+
+            for (char c : ranks[y].toCharArray())
+            {
+                if (Character.isDigit(c))
+                {
+                    for (int i = 0; i < c-'0' && x < 8; i++)
+                        position[y][x++] = ' ';
+                }
+                else if (x < 8 && "pnbrqkPNBRQK".indexOf(c) >= 0)
+                    position[y][x++] = Character.isUpperCase(c) ? Character.toLowerCase(c) : Character.toUpperCase(c); //FEN uses upper case for white, the board lower case
+                else
+                    throw new IllegalArgumentException("Bad rank " + ranks[y] + " in " + fen);
+            }
+
+            if (x != 8)
+                throw new IllegalArgumentException("Bad rank " + ranks[y] + " in " + fen);
+        }
+
+        String castling = fields.length > 2 ? fields[2] : "-";
+        boolean whiteKingside = castling.indexOf('K') >= 0, whiteQueenside = castling.indexOf('Q') >= 0;
+        boolean blackKingside = castling.indexOf('k') >= 0, blackQueenside = castling.indexOf('q') >= 0;
+
+        position[8][0] = ' ';
+        position[8][1] = '0';
+        position[8][2] = '0';
+        position[8][3] = (char)('0' + (whiteKingside || whiteQueenside ? 0 : 1) + (blackKingside || blackQueenside ? 0 : 2));
+        position[8][4] = (char)('0' + (whiteQueenside ? 0 : 1) + (blackQueenside ? 0 : 2));
+        position[8][5] = (char)('0' + (whiteKingside ? 0 : 1) + (blackKingside ? 0 : 2));
+        Evaluation.initialize(position);
+
+        if (fields.length > 3 && fields[3].length() == 2)
+            position[8][0] = (char)('0' + fields[3].charAt(0)-'a');
+
+        if (fields.length > 4)
+            position[8][2] = (char)('0' + Math.min(Integer.parseInt(fields[4]), 100));
+
+        return position;
+    }
+
+    //Returns whether white has the move in a position in Forsyth-Edwards Notation
+    public static boolean isWhiteToMove(String fen)
+    {
+        String[] fields = fen.trim().split("\\s+");
+        return fields.length < 2 || fields[1].equals("w");
+    }
+
     //Sets square as selected by player
     public static void setSelected(Point selected)
     {
@@ -976,6 +1060,10 @@ public class Board {
         
         //System.out.println(move.getEnPassantVal());
         position[8][0] = move.getEnPassantVal();
+        position[8][2] = move.getHalfmoveClockVal();
+        position[8][Evaluation.OPENING_SUM] = move.getOpeningSumVal();
+        position[8][Evaluation.ENDGAME_SUM] = move.getEndgameSumVal();
+        position[8][Evaluation.PHASE] = move.getPhaseVal();
         
         return zobrist;
     }
@@ -986,6 +1074,10 @@ public class Board {
         char startPiece = position[move.getStartSquare().y][move.getStartSquare().x]; //Piece that will be moved
         
         move.setEnPassantVal(position[8][0]);
+        move.setHalfmoveClockVal(position[8][2]);
+        move.setOpeningSumVal(position[8][Evaluation.OPENING_SUM]);
+        move.setEndgameSumVal(position[8][Evaluation.ENDGAME_SUM]);
+        move.setPhaseVal(position[8][Evaluation.PHASE]);
        
         if (startPiece == 'k')
         {
@@ -1104,6 +1196,7 @@ public class Board {
                     System.out.println(Arrays.deepToString(position));
 
                     //System.out.println("EXRRR " + position[3][move.getEndSquare().x] + " " + position[move.getEndSquare().y][move.getEndSquare().x]);
+                Evaluation.removePiece(position, position[3][move.getEndSquare().x], move.getEndSquare().x, 3);
                 position[3][move.getEndSquare().x] = ' ';
             }
             else if (move.getEndSquare().y == 5)
@@ -1112,6 +1205,7 @@ public class Board {
                     System.out.println(Arrays.deepToString(position));
                     //System.out.println("EXRRR " + position[4][move.getEndSquare().x] + " " + position[move.getEndSquare().y][move.getEndSquare().x]);
                 
+                Evaluation.removePiece(position, position[4][move.getEndSquare().x], move.getEndSquare().x, 4);
                 position[4][move.getEndSquare().x] = ' ';
             }
 
@@ -1134,6 +1228,17 @@ public class Board {
         position[move.getEndSquare().y][move.getEndSquare().x] = startPiece;
         position[move.getStartSquare().y][move.getStartSquare().x] = ' ';
         
+        //Update the evaluation sums. Empty squares are worth nothing, so a move without a capture removes nothing at its end square.
+        Evaluation.removePiece(position, startPiece, move.getStartSquare().x, move.getStartSquare().y);
+        Evaluation.removePiece(position, move.getCapturedPiece(), move.getEndSquare().x, move.getEndSquare().y);
+        Evaluation.addPiece(position, startPiece, move.getEndSquare().x, move.getEndSquare().y);
+        
+        //Update the number of plies since the last capture or pawn move
+        if (startPiece == 'p' || startPiece == 'P' || move.getCapturedPiece() != ' ' || enPassant)
+            position[8][2] = '0';
+        else
+            position[8][2]++;
+        
         if (startPiece == 'p' || startPiece == 'P')
         {
             if (Character.isLowerCase(startPiece))
@@ -1158,6 +1263,12 @@ public class Board {
                     move.setPromotion(true);
                 }
             }
+            
+            if (move.isPromotion())
+            {
+                Evaluation.removePiece(position, startPiece, move.getEndSquare().x, move.getEndSquare().y);
+                Evaluation.addPiece(position, position[move.getEndSquare().y][move.getEndSquare().x], move.getEndSquare().x, move.getEndSquare().y);
+            }
         }
         
         
@@ -1167,46 +1278,33 @@ public class Board {
             char rook = position[move.getStartSquare().y][7];
             position[move.getStartSquare().y][7] = ' ';
             position[move.getStartSquare().y][5] = rook;
+            Evaluation.removePiece(position, rook, 7, move.getStartSquare().y);
+            Evaluation.addPiece(position, rook, 5, move.getStartSquare().y);
         }
         else if (castle == -1)
         {
             char rook = position[move.getStartSquare().y][0];
             position[move.getStartSquare().y][0] = ' ';
             position[move.getStartSquare().y][3] = rook;
+            Evaluation.removePiece(position, rook, 0, move.getStartSquare().y);
+            Evaluation.addPiece(position, rook, 3, move.getStartSquare().y);
         }
         
         
         if (actual) //If the move is actually being made on the real game board as opposed to moves made by the AI in the minmax algorithm
         {
             //Used for checking for 3-fold repetition
-            
-            /*
-            reachedPositions[reachedPositionsIndex] = calculateZobrist(position);
-            reachedPositionsIndex++;
-            if (reachedPositionsIndex >= reachedPositions.length)
-            {
-                reachedPositionsIndex = 0;
-            }
-            */
-            
-            
             zobrist = calculateZobrist(position);
             
-            if (!reachedPositions.contains(zobrist))
-                reachedPositions.add(zobrist);
-            else
+            boolean irreversible = isIrreversible(position, move);
+            int occurrences = gameHistory.countRepetitions(zobrist, irreversible)+1;
+            gameHistory.push(zobrist, irreversible);
+            
+            if (occurrences > 1)
             {
-                System.out.println(zobrist);
                 System.out.println("Repetition");
                 
-                int occurrences = 0;
-                
-                if (repeatedPositions.containsKey(zobrist))
-                    occurrences = repeatedPositions.get(zobrist);
-                
-                repeatedPositions.put(zobrist, occurrences+1);
-                
-                if (occurrences+1 >= 3)
+                if (occurrences >= 3)
                 {
                     //Game is drawn by threefold repetition
                     isGameOver = true;
@@ -1229,6 +1327,24 @@ public class Board {
             
             isGameOver = checkGameOver(position, !Character.isLowerCase(startPiece));
             
+            //Checkmate takes precedence over the fifty-move rule, so it is only checked once the game is known to be ongoing
+            if (!isGameOver && (getHalfmoveClock(position) >= 100 || isInsufficientMaterial(position)))
+            {
+                clock.stop();
+                
+                if (getHalfmoveClock(position) >= 100)
+                    System.out.println("Game over. The game is drawn due to the fifty-move rule.");
+                else
+                    System.out.println("Game over. The game is drawn due to insufficient material.");
+                System.out.println(moveLog);
+                
+                isGameOver = true;
+                playerOneWon = false;
+                playerTwoWon = false;
+                
+                return zobrist;
+            }
+            
             if (isGameOver)
             {
                 clock.stop();
@@ -1293,9 +1409,98 @@ public class Board {
         return currentZobrist;
     }
     
-    public static HashSet<Long> getPreviousPositions()
+    //Returns the history of positions reached in the game. Searches copy it rather than modifying it.
+    public static RepetitionHistory getGameHistory()
+    {
+        return gameHistory;
+    }
+    
+    public static boolean isGameOver()
     {
-        return reachedPositions;
+        return isGameOver;
+    }
+    
+    //Returns true if a move, which has just been made, can never be reversed. Positions before such a move cannot be repeated.
+    public static boolean isIrreversible(char[][] position, Move move)
+    {
+        return position[8][2] == '0' || move.isFirstKingMove() || move.isFirstRookMove();
+    }
+    
+    //Returns the number of plies since the last capture or pawn move. The game is drawn once it reaches 100.
+    public static int getHalfmoveClock(char[][] position)
+    {
+        return position[8][2]-'0';
+    }
+    
+    //Returns true if neither side can possibly checkmate: bare kings, a single minor piece, or only bishops which all stand on squares of one color
+    public static boolean isInsufficientMaterial(char[][] position)
+    {
+        int knights = 0;
+        int lightBishops = 0;
+        int darkBishops = 0;
+        
+        for (int i = 0; i < 8; i++)
+        {
+            for (int j = 0; j < 8; j++)
+            {
+                switch (position[i][j])
+                {
+                    case ' ':
+                    case 'k':
+                    case 'K':
+                        break;
+                    case 'n':
+                    case 'N':
+                        knights++;
+                        break;
+                    case 'b':
+                    case 'B':
+                        if ((i+j)%2 == 0)
+                            lightBishops++;
+                        else
+                            darkBishops++;
+                        break;
+                    default: //Pawns, rooks and queens are always sufficient
+                        return false;
+                }
+            }
+        }
+        
+        if (knights+lightBishops+darkBishops <= 1)
+            return true;
+        
+        return knights == 0 && (lightBishops == 0 || darkBishops == 0);
+    }
+    
+    //Returns true if the given side has enough material to checkmate a lone king, used to decide timeouts
+    public static boolean hasMatingMaterial(char[][] position, boolean isWhite)
+    {
+        int minorPieces = 0;
+        
+        for (int i = 0; i < 8; i++)
+        {
+            for (int j = 0; j < 8; j++)
+            {
+                char piece = position[i][j];
+                
+                if (piece == ' ' || Character.isLowerCase(piece) != isWhite)
+                    continue;
+                
+                switch (Character.toLowerCase(piece))
+                {
+                    case 'p':
+                    case 'r':
+                    case 'q':
+                        return true;
+                    case 'n':
+                    case 'b':
+                        minorPieces++;
+                        break;
+                }
+            }
+        }
+        
+        return minorPieces > 1;
     }
     
     public static int checkWinner(char[][] position) //Returns 2 if white won, 1 if black wone, 0 if draw
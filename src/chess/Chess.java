@@ -10,7 +10,7 @@
  *  -   Ability to modify time control in application <= Implemented in a basic form>
  *  -   Ability to pit AI versus AI in application
  *  -   Opening book
- *  -   Draw detection for insufficient material, 50 move rule
+ *  -   Draw detection for insufficient material, 50 move rule <= Implemented>
  *  -   Play back game after completion
  *  -   Ability to play as either color <= Implemented>
  *  -   Fix occasional null pointer error thrown when user selects time control. It seems to be timing related. <= Probably fixed>
@@ -7,70 +7,193 @@
 
 package chess;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
 public class ComputerPlayer implements Player, Runnable {
-    private class TranspositionElement
+    //All scores are integer centipawns from white's perspective (a pawn is worth 100).
+    private static final int INFINITE_SCORE = 32000; //Outside of the possible spectrum of scores
+    static final int MATE_SCORE = 30000; //Score of a checkmate on the board. Mates found deeper in the tree are worth one point less per ply.
+    private static final int MATE_BOUND = MATE_SCORE-1000; //Any score beyond this bound encodes a forced mate
+    
+    //Weight of each square around the enemy king which a piece attacks, and the penalty to the king's side for the total weight of the attacks, before scaling by its evaluation parameter
+    private static final int KNIGHT_KING_ATTACK = 2;
+    private static final int BISHOP_KING_ATTACK = 2;
+    private static final int ROOK_KING_ATTACK = 3;
+    private static final int QUEEN_KING_ATTACK = 5;
+    private static final int LAZY_MARGIN = 300; //Largest amount by which mobility, pawn structure and king safety are assumed to move the material and piece-square score
+    private static final int[] KING_ATTACK_VALUES = {0, 0, 1, 2, 4, 6, 9, 12, 16, 20, 25, 30, 36, 42, 49, 56, 64, 72, 81, 90, 100, 110, 121, 132, 144, 156, 169, 182, 196, 210, 225};
+    
+    //State owned by a single search thread. Each thread searching at the same time must use its own instance.
+    private class SearchState
+    {
+        //Triangular principal variation table. Row n holds the best line found from ply n onward, entries n to pvLength[n]-1.
+        private final Move[][] pvTable = new Move[MAX_PLY][MAX_PLY];
+        private final int[] pvLength = new int[MAX_PLY];
+        
+        //Principal variation of the previous iteration, searched first on the next iteration
+        private final Move[] lastPv = new Move[MAX_PLY];
+        private int lastPvLength = 0;
+        private boolean followPv; //Whether the node about to be searched lies on the previous principal variation
+        
+        private Nnue.Accumulator accumulator; //Accumulators of the network along the line being searched. Null when the handcrafted evaluation is used.
+        
+        //Positions of the game followed by those along the line being searched, used to detect repetitions
+        private final RepetitionHistory history = new RepetitionHistory(512+MAX_PLY);
+        
+        private int nodes; //Interior nodes visited by this thread, used to check the clock every few nodes
+        
+        //Counts not yet added to the metrics. They are added every few nodes, so no counter is shared between threads in the search itself.
+        private int reportedNodes; //Value of nodes when they were last added
+        private int leaves;
+        private int transpositionProbes;
+        private int transpositionHits;
+        private int transpositionCollisions;
+        private int transpositionEvictions;
+        private int cutoffs;
+        private int firstMoveCutoffs;
+        private int pawnProbes;
+        private int pawnHits;
+        private int evalProbes;
+        private int evalHits;
+        private int lazyExits;
+        
+        //Stores the principal variation of the completed iteration so that the next iteration searches it first
+        private void savePv()
+        {
+            lastPvLength = pvLength[0];
+            System.arraycopy(pvTable[0], 0, lastPv, 0, lastPvLength);
+        }
+        
+        private void clearPv()
+        {
+            lastPvLength = 0;
+            pvLength[0] = 0;
+        }
+    }
+    
+    //One line of a multi-PV analysis: a root move's exact score and the variation it begins
+    public static class PvLine
     {
-        private double eval;
-        private int depth;
-        private TranspositionElement(int depth, double eval)
+        public final int depth;
+        public final int score;
+        public final List<Move> moves;
+        
+        private PvLine(int depth, int score, List<Move> moves)
         {
-            this.eval = eval;
             this.depth = depth;
+            this.score = score;
+            this.moves = Collections.unmodifiableList(moves);
+        }
+        
+        @Override
+        public String toString()
+        {
+            return depth + " " + score + " " + moves;
         }
     }
     
-    private final HashMap<Long, TranspositionElement> transpositionMap = new HashMap<>();
-    private final int MAX_HASH_SIZE = 25000;
-    private final LinkedList<Long> transpositionMapOrder = new LinkedList<>();
+    //Request for the main thread to search, either for the computer's own move or while pondering
+    private static class SearchRequest
+    {
+        private final boolean ponder;
+        private final long requestTime; //System.nanoTime() when the search was requested
+        private final char[][] position; //For a ponder search, the board and game history when it was requested, before the opponent's reply. Null otherwise.
+        private final RepetitionHistory history;
+        private final boolean afterPonder; //Whether a ponder search was queued or running when the request was made, which leaves the abort flag to be cleared on the main thread
+        
+        private SearchRequest(boolean ponder, char[][] position, RepetitionHistory history, boolean afterPonder)
+        {
+            this.ponder = ponder;
+            this.position = position;
+            this.history = history;
+            this.afterPonder = afterPonder;
+            requestTime = System.nanoTime();
+        }
+    }
+    
+    /*
+    The transposition table is a fixed-size array of entries indexed by the low bits of the zobrist hash. Each entry is two longs: the key and a data word
+    packing the score (bits 0-15), the remaining depth it was searched to (bits 16-23) and the search generation that stored it (bits 24-31).
+    The key is stored xored with the data so that an entry torn by two threads writing at once fails verification instead of returning a wrong score.
+    */
+    private static final int TRANSPOSITION_BITS = 18; //Table holds 2^18 entries (4 MB)
+    private static final int TRANSPOSITION_MASK = (1 << TRANSPOSITION_BITS)-1;
+    private final long[] transpositionKeys = new long[1 << TRANSPOSITION_BITS];
+    private final long[] transpositionData = new long[1 << TRANSPOSITION_BITS];
+    private int transpositionGeneration = 0; //Incremented every search, so that entries from older searches can be replaced
+    private int transpositionEntries = 0; //Number of occupied entries
+    
+    private final PawnTable pawnTable = new PawnTable(Integer.getInteger("chess.pawnHashSize", PawnTable.DEFAULT_SIZE)); //Pawn structure terms of the evaluation, shared by all search threads. Sized in kilobytes.
+    private final EvalCache evalCache = new EvalCache(Integer.getInteger("chess.evalCacheSize", EvalCache.DEFAULT_SIZE)); //Leaf evaluations, shared by all search threads. Sized in kilobytes.
+    
+    private volatile Nnue network = loadNetwork(); //Evaluates the leaves in place of the handcrafted evaluation if set. Loaded from the file named by the chess.nnue property.
     
     private boolean isBook; //Not currently used, but 
-    private double isOpening; //Degree to which computer thinks the game is in the opening stage
-    private double isMiddlegame; //Same for middlegame
-    private double isEndgame; //Same for endgame
     
-    private boolean isThinking; //Whether the computer is currently determining its next move
-    private Move move; //Move the computer has decided upon
-    private int movesAnalyzed; //Metric for number of moves analyzed on the last move
+    private volatile boolean isThinking; //Whether the computer is currently determining its next move
+    private volatile Move move; //Move the computer has decided upon
     private boolean isWhite; //Whether the computer is white
-    private final Thread thread; //Main thread the AI runs on
+    private final Thread thread; //Main thread the AI runs on. It sleeps on searchRequests until it is asked to think.
+    private final BlockingQueue<SearchRequest> searchRequests; //Searches the main thread has been asked to run
+    
+    //While the opponent thinks, the computer searches the position after the reply it expects. If the opponent plays that reply (a ponder hit), the search carries on as the computer's own.
+    //Otherwise (a ponder miss), it is cancelled and a new search begins, which still benefits from the positions stored in the transposition table.
+    private static final boolean PONDER = true;
+    private volatile boolean isPondering; //Whether a ponder search is queued or running
+    private volatile boolean ponderHit; //Whether the opponent played the expected reply during the current ponder search
+    private volatile Move ponderMove; //Reply the current ponder search expects
     
     //Number of additional threads to use for calculation. At zero, only the main thread is used for calculation. On some computers, performance may be improved by increasing this.
     //The advantage of increasing the number of threads is improved utilization of multicored CPUs. The disadvantage is that, by splitting up and desynchronizing the processing load, the algorithm's alpha-beta pruning is rendered less effective.
     private static final int PROCESSING_THREADS = 0; 
     
-    private Thread[] processingThreads;
-    private LinkedList<Move>[] processingThreadMoves;
-    private Move[] processingThreadChoice;
-    private boolean[] processingThreadsComplete;
+    private final ExecutorService processingPool; //Runs the processing threads' searches. Idle threads block inside the pool.
+    private final List<Future<Move>> processingThreadResults; //Best move found by each processing thread for the current search
+    private final List<LinkedList<Move>> processingThreadMoves;
     
-    private int thinkTime; //Amount of time the computer will try to think about its next move. Actual think time will vary.
-    private int maxThinkTime; //The absolute maximum amount of time the computer will spend on its next move. If exceeded, the next iteration of the move search will be aborted immediately and the best move determined so far will be returned.
-    private int minThinkTime; //The absolute minimum amount of time the computer will spend on its next move. If the move search is complete before this number is exceeded, the computer will begin another iteration.
-    private static final int EXPECTED_TIME_MULT = 30; //How much the computer expects each deeper iteration to take compared to the previous one.
-    private static final int EXPECTED_TIME_MULT_ENDGAME = 25; //In the endgame, the multiplier is expected to be lower due to fewer possible branches per move.
+    private final TimeManager timeManager; //Decides how long the computer thinks about its next move. If its hard limit is exceeded, the current iteration of the move search is aborted immediately and the best move determined so far is returned.
     
-    //private static Move[] principalVariation;
-    private LinkedList<Move> principalVariation; //Not currently used. If implemented, this would allow the AI to return its expected variation for its chosen move.
+    private static final int MAX_PLY = 64; //Maximum search depth in plies, which bounds the size of the principal variation table
     
-    private int totalMovesAnalyzed; //Metric for number of moves analzyed across all moves
-    private double totalTime; //Time spent on all moves
+    private final SearchState mainState; //Search state of the main thread
+    private final SearchState[] processingThreadStates;
+    private volatile LinkedList<Move> principalVariation; //Expected variation for the computer's last completed iteration, starting with its chosen move
     
-    private int moves;
+    //In multi-PV mode, each iteration also finds the best of the root moves not yet reported, multiPv-1 more times, so that the top multiPv root moves get exact scores.
+    //The extra passes reuse the transposition table. Only the main thread's root moves take part.
+    private volatile int multiPv = Math.max(Integer.getInteger("chess.multiPv", 1), 1);
+    private volatile List<PvLine> multiPvLines = Collections.emptyList(); //Lines of the last iteration analysed in full, best first
     
-    private int leaves; //Metric for number of leaves reached
+    //With lazy evaluation, a leaf whose material and piece-square score lies more than LAZY_MARGIN outside the window is scored by that alone, skipping the rest of the evaluation
+    private volatile boolean lazyEvaluation = !"false".equals(System.getProperty("chess.lazyEval"));
     
-    private boolean abortSearch; //Whether or not the search is to be immediately aborted
+    private final SearchMetrics metrics; //Statistics of the computer's searches, also published through JMX
     
-    private int threadCount = 0;
+    private int moves;
+    
+    private volatile boolean abortSearch; //Whether or not the search is to be immediately aborted. Any thread may set this.
+    private volatile long stopRequestTime; //System.nanoTime() when the search was last stopped from outside, used to report how quickly it returned
+    private static final int ABORT_CHECK_MASK = 255; //The clock is checked once every ABORT_CHECK_MASK+1 nodes on each thread
     
-    private long searchStartTime;
+    //Limits of a search started through search(). During a game, the time manager is the only limit.
+    private volatile int maxIteration = MAX_PLY-2; //Deepest iteration to start. An iteration at depth d searches d+1 plies.
+    private volatile long nodeLimit = 0; //The search is aborted once it has searched this many nodes. 0 for no limit.
+    private volatile int mateLimit = 0; //The search stops once it has found a mate delivered within this many plies. 0 to search normally.
     
     public Move lastAnalyzed;   
     
@@ -78,278 +201,283 @@ public class ComputerPlayer implements Player, Runnable {
     
     private Timer clock;
     
-    //Some pieces become more valuable the closer they are to the center of the board
-    private static final double[][] CENTRALIZATION = new double[][]
-    {
-        {0.00, 0.00, 0.00, 0.00, 0.00, 0.00, 0.00, 0.00},
-        {0.00, 0.25, 0.25, 0.25, 0.25, 0.25, 0.25, 0.00},
-        {0.00, 0.25, 0.75, 0.75, 0.75, 0.75, 0.25, 0.00},
-        {0.00, 0.25, 0.75, 1.00, 1.00, 0.75, 0.25, 0.00},
-        {0.00, 0.25, 0.75, 1.00, 1.00, 0.75, 0.25, 0.00},
-        {0.00, 0.25, 0.75, 0.75, 0.75, 0.75, 0.25, 0.00},
-        {0.00, 0.25, 0.25, 0.25, 0.25, 0.25, 0.25, 0.00},
-        {0.00, 0.00, 0.00, 0.00, 0.00, 0.00, 0.00, 0.00},
-        
-    };
-    
-    //Bishops have more specific squares where they are more valuable
-    private static final double[][] BISHOP_POSITION_VALUES = new double[][]
+    public ComputerPlayer(boolean isWhite)
     {
-        {0.10, 0.10, 0.00, 0.10, 0.10, 0.00, 0.10, 0.10},
-        {0.20, 1.00, 0.10, 0.30, 0.30, 0.10, 1.00, 0.20},
-        {0.80, 0.80, 0.10, 0.35, 0.35, 0.10, 0.80, 0.80},
-        {0.15, 0.30, 0.75, 0.20, 0.20, 0.75, 0.30, 0.15},
-        {0.15, 0.30, 0.75, 0.20, 0.20, 0.75, 0.30, 0.15},
-        {0.80, 0.80, 0.10, 0.35, 0.35, 0.10, 0.80, 0.80},
-        {0.20, 1.00, 0.10, 0.30, 0.30, 0.10, 1.00, 0.20},
-        {0.10, 0.10, 0.00, 0.10, 0.10, 0.00, 0.10, 0.10},
-    };
+        this(isWhite, isWhite ? "White" : "Black");
+    }
     
-    public ComputerPlayer(boolean isWhite)
+    //Creates a player whose metrics are registered under the given name, which must differ from that of any other player alive at the same time
+    public ComputerPlayer(boolean isWhite, String metricsName)
     {
         this.isWhite = isWhite;
-        thread = new Thread(this);
-        leaves = 0;
-        movesAnalyzed = 0;
+        thread = new Thread(this, "Computer player");
+        thread.setDaemon(true);
+        searchRequests = new LinkedBlockingQueue<>();
+        metrics = new SearchMetrics();
+        metrics.register(metricsName);
+        SearchEvents.initialize();
+        SearchLog.isEnabled(); //Opens the log before the first search
         
         moves = 0;
         
         isBook = false;
-        isOpening = 100;
-        isMiddlegame = 0;
-        isEndgame = 0;
         
-        processingThreads = new Thread[PROCESSING_THREADS];
-        processingThreadMoves = new LinkedList[PROCESSING_THREADS];
-        processingThreadsComplete = new boolean[PROCESSING_THREADS];
-        processingThreadChoice = new Move[PROCESSING_THREADS];
+        processingPool = PROCESSING_THREADS > 0 ? Executors.newFixedThreadPool(PROCESSING_THREADS, runnable -> {
+            Thread processingThread = new Thread(runnable, "Computer player processing");
+            processingThread.setDaemon(true);
+            return processingThread;
+        }) : null;
+        processingThreadResults = new ArrayList<>(Collections.nCopies(PROCESSING_THREADS, null));
+        processingThreadMoves = new ArrayList<>(PROCESSING_THREADS);
+        processingThreadStates = new SearchState[PROCESSING_THREADS];
         
-        for (int i = 0; i < processingThreads.length; i++)
+        for (int i = 0; i < PROCESSING_THREADS; i++)
         {
-            processingThreads[i] = new Thread(this);
-            processingThreadMoves[i] = new LinkedList<Move>();
-            processingThreadsComplete[i] = false;
-            processingThreadChoice[i] = null;
+            processingThreadMoves.add(new LinkedList<Move>());
+            processingThreadStates[i] = new SearchState();
         }
         
+        mainState = new SearchState();
+        timeManager = new TimeManager();
         principalVariation = new LinkedList<Move>();
         abortSearch = false;
                 
     }
     
-    //Linear interpolation
-    private double lerp(double value1, double value2, double factor)
-    {
-        return (1-factor) * value1 + factor * value2;
-    }
-    
     @Override
     public void run()
     {
-        int thisThread = threadCount;
-        threadCount++;
-        
-        if (threadCount == 1) //If we're on the main thread
+        while (true)
         {
-            while (true)
+            SearchRequest request;
+            
+            try {
+                request = searchRequests.take(); //Sleep until it's time for us to find a move
+            } catch (InterruptedException ex) {
+                Logger.getLogger(ComputerPlayer.class.getName()).log(Level.SEVERE, null, ex);
+                return;
+            }
+            
+            if (request.ponder)
             {
-                if (isThinking && move == null) //If it's time for us to find a move, start looking
-                {
-                    char[][] position = Board.getBoardPosition();
-                    long zobrist = Board.getZobrist();
-
-                    LinkedList<Move> possibleMoves = Board.getLegalMoves(position, isWhite, true);
-
-                    move = determineMove(position, possibleMoves, zobrist);
-                }
-                else //Otherwise, sleep briefly to avoid overutilizing computer resoruces
-                {
-                    try {
-                        Thread.sleep(50);
-                    } catch (InterruptedException ex) {
-                        Logger.getLogger(ComputerPlayer.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-                }
+                ponder(request);
+                continue;
             }
-        }
-        else
-        {
-            while (true)
+            
+            //A ponder search cancelled by a miss has returned by now, as it ran on this thread, so the flag it was stopped by can be cleared.
+            //A stop arriving after this still takes effect, and one arriving before it has already cleared isThinking.
+            if (request.afterPonder)
             {
-                if (!processingThreadsComplete[thisThread-1] && processingThreadChoice[thisThread-1] == null && processingThreadMoves[thisThread-1].size() > 0)
-                {
-                    char[][] position = Board.getBoardPosition();
-                    long zobrist = Board.getZobrist();
-                    
-                    long startTime = System.nanoTime();
-                    double timeTaken = 0;
-                    
-                    int currentDepth = 0;
-        
-                    int alpha = -10000000;
-                    int beta = 10000000;
-                    
-                    isOpening = isOpening(position);
-                    isEndgame = isEndgame(position);
-                    
-                    Move choice = null;
+                abortSearch = false;
+                stopRequestTime = 0;
+            }
+            
+            if (!isThinking || move != null) //The request was cancelled or already answered
+                continue;
+            
+            SearchLog.log(SearchLog.EVENT_START, isWhite, (System.nanoTime()-request.requestTime)/1000);
+            
+            char[][] position = Board.getBoardPosition();
+            long zobrist = Board.getZobrist();
 
+            LinkedList<Move> possibleMoves = Board.getLegalMoves(position, isWhite, true);
 
-                    while ((timeTaken*lerp(EXPECTED_TIME_MULT, EXPECTED_TIME_MULT_ENDGAME, isEndgame*0.01) < thinkTime || timeTaken < minThinkTime) && !abortSearch)
-                    {
-                        currentDepth++;
+            determineThinkTime();
+            Move decision = determineMove(position, possibleMoves, zobrist, Board.getGameHistory());
 
-                        choice = minmax(position, 0, currentDepth, isWhite, alpha, beta, processingThreadMoves[thisThread-1], zobrist);
-                        
-                        if (!choice.isAbortion())
-                            processingThreadChoice[thisThread-1] = choice;
-                        
-                        reorderMoves(processingThreadMoves[thisThread-1], processingThreadChoice[thisThread-1]);
-                        timeTaken = (System.nanoTime()-startTime)/1000000;
-                    }
-                    processingThreadsComplete[thisThread-1] = true;
-                    //System.out.println(thisThread-1 + " " + currentDepth);
-                }
-            }
+            if (isThinking) //A search stopped from outside has been cancelled, so its move is discarded
+                move = decision;
         }
     }
     
-    //Reorder move list to place current best move at the start
-    private void reorderMoves(LinkedList<Move> legalMoves, Move bestMove)
+    //Searches the position after the expected reply until the opponent moves. On a ponder hit, the result becomes the computer's move.
+    private void ponder(SearchRequest request)
     {
-        legalMoves.remove(bestMove);
-        legalMoves.add(0, bestMove);
-    }
-    
-    //Determiens how long the computer will think on the next move, along with minimum and maximum time.
-    private void determineThinkTime()
-    {
-        double timeLeft;
-        double maxMult = 2;
+        char[][] position = request.position;
+        RepetitionHistory history = request.history;
+        Move reply = ponderMove.copy();
+        Move decision = null;
         
-        if (isWhite)
+        Board.makeMove(position, reply, false, 0);
+        long zobrist = Board.calculateZobrist(position);
+        history.push(zobrist, Board.isIrreversible(position, reply));
+        
+        LinkedList<Move> possibleMoves = Board.getLegalMoves(position, isWhite, true);
+        
+        if (possibleMoves.size() > 1 && !abortSearch) //There is nothing to ponder if the reply ends the game or leaves a single move
         {
-            System.out.println("White");
-            timeLeft = clock.getWhiteTime()*1000;
+            SearchLog.log(SearchLog.EVENT_PONDER, isWhite, (System.nanoTime()-request.requestTime)/1000, 0, 0, 0, 0, 0, 0, Collections.singletonList(reply));
+            decision = determineMove(position, possibleMoves, zobrist, history);
         }
-        else
+        
+        synchronized (this)
         {
-            System.out.println("Black");
-            timeLeft = clock.getBlackTime()*1000;
+            isPondering = false;
+            
+            if (ponderHit && isThinking && move == null && decision != null)
+                move = decision;
         }
+    }
+    
+    //Queues a ponder search on the reply expected by the principal variation of the move just played
+    //Called on the thread which owns the board, so the position and history are copied here, before the opponent can move
+    private void startPondering(Move played)
+    {
+        LinkedList<Move> variation = principalVariation;
         
-        int delay = clock.getDelay()*1000; //Find clock delay in milliseconds
-        int increment = clock.getIncrement()*1000; //Find clock increment in milliseconds               
+        if (Board.isGameOver() || variation.size() < 2 || !variation.getFirst().equals(played))
+            return;
         
-        thinkTime = (int)timeLeft/Math.max((30-moves), 5); //Calculate base think time
+        char[][] position = Board.getBoardPosition();
+        RepetitionHistory history = new RepetitionHistory(512+MAX_PLY);
+        history.copyFrom(Board.getGameHistory());
         
-        //Determine multiplier for maximum time based on time remaining
-        if (timeLeft < 60*1000)
-            maxMult = 1.5; 
-        else if (timeLeft < 180*1000)
-            maxMult = 2;
-        else if (timeLeft < 600*1000)
-            maxMult = 2.5;
-        else
-            maxMult = 3;
+        ponderMove = variation.get(1);
+        ponderHit = false;
+        abortSearch = false;
+        stopRequestTime = 0;
+        timeManager.startFixed(-1); //Ponder until the opponent moves
+        isPondering = true;
         
-        maxThinkTime = (int)(thinkTime*maxMult); //Determine maximum think time
+        searchRequests.offer(new SearchRequest(true, position, history, false));
+    }
+    
+    @Override
+    public void opponentMoved(Move opponentMove)
+    {
+        boolean miss;
         
-        //If time is low, set max think time to be the same as think time
-        if (timeLeft < 10*1000 && increment == 0 && delay == 0)
+        synchronized (this)
         {
-            thinkTime = 500;
-            maxThinkTime = 500;
+            if (!isPondering)
+                return;
             
-            //If time is extremely low, lower think time and max think time
-            if (timeLeft < 4*1000)
-            {
-                thinkTime = 200;
-                maxThinkTime = 200;
-            }
-        }
-        
-        //If increment exists, think for longer
-        if (increment > 0)
-        {
-            if (timeLeft > 180*1000)
-            {
-                minThinkTime = thinkTime/3;
-                maxThinkTime = (int)(thinkTime*maxMult);
-            }
-            else if (timeLeft > 120*1000)
+            miss = !opponentMove.equals(ponderMove);
+            
+            if (miss)
             {
-                minThinkTime = thinkTime/4;
-                maxThinkTime = (int)(thinkTime*1.8);
+                stopRequestTime = System.nanoTime();
+                abortSearch = true;
             }
-            else if (timeLeft > 90*1000)
+            else
             {
-                minThinkTime = thinkTime/5;
-                maxThinkTime = (int)(thinkTime*1.8);
+                ponderHit = true;
+                determineThinkTime(true); //The search continues as the computer's own, timed from now
             }
         }
         
-        thinkTime += increment;
-        maxThinkTime += increment;
+        //On a miss the ponder search is only flagged to stop, as this runs on the board's thread. The next search request waits for it on the main thread.
+        SearchLog.log(miss ? SearchLog.EVENT_PONDER_MISS : SearchLog.EVENT_PONDER_HIT, isWhite);
+    }
+    
+    //Searches the root moves assigned to a processing thread until the time manager ends the search, returning the best of them or null if no iteration completed
+    private Move searchProcessingThread(int index, char[][] position, long zobrist, RepetitionHistory history)
+    {
+        LinkedList<Move> legalMoves = processingThreadMoves.get(index);
+        SearchState state = processingThreadStates[index];
+        
+        int currentDepth = 0;
+        
+        int alpha = -INFINITE_SCORE;
+        int beta = INFINITE_SCORE;
+        
+        Move choice = null;
+        Move bestChoice = null;
+        state.clearPv();
+        state.history.copyFrom(history);
+        state.nodes = 0;
+        state.reportedNodes = 0;
         
-        if (thinkTime < delay)
+        while ((currentDepth == 0 || timeManager.shouldStartIteration()) && !abortSearch && currentDepth < maxIteration)
         {
-            thinkTime = delay;
-            minThinkTime = thinkTime/2;
-            if (maxThinkTime < thinkTime)
-                maxThinkTime += delay;
+            currentDepth++;
             
-            if (timeLeft < 10*1000)
+            state.followPv = true;
+            choice = minmax(position, 0, currentDepth, isWhite, alpha, beta, legalMoves, zobrist, state);
+            reportMetrics(state);
+            
+            if (!choice.isAbortion())
             {
-                maxThinkTime = delay;
+                state.savePv();
+                bestChoice = choice;
+                reorderMoves(legalMoves, choice);
             }
         }
         
-        //minThinkTime = delay/2;
-        minThinkTime = 0;
+        return bestChoice;
+    }
+    
+    //Reorder move list to place current best move at the start, followed by the remaining moves sorted by the size of their subtrees in the last iteration
+    private void reorderMoves(LinkedList<Move> legalMoves, Move bestMove)
+    {
+        legalMoves.sort((a, b) -> Integer.compare(b.getNodeCount(), a.getNodeCount()));
         
-        if (increment > 0)
+        legalMoves.remove(bestMove);
+        legalMoves.add(0, bestMove);
+    }
+    
+    //Starts the time manager for the next move, using the time remaining on the computer's clock
+    private void determineThinkTime()
+    {
+        determineThinkTime(false);
+    }
+    
+    //On a ponder hit, the time manager keeps what it has learnt from the ponder search's iterations
+    private void determineThinkTime(boolean ponderHit)
+    {
+        double timeLeft = (isWhite ? clock.getWhiteTime() : clock.getBlackTime())*1000; //Find remaining time in milliseconds
+        int delay = clock.getDelay()*1000; //Find clock delay in milliseconds
+        int increment = clock.getIncrement()*1000; //Find clock increment in milliseconds
+        
+        if (ponderHit)
+            timeManager.ponderHit(timeLeft, increment, delay, moves);
+        else
+            timeManager.start(timeLeft, increment, delay, moves);
+            
+        SearchLog.log(SearchLog.EVENT_SEARCH, isWhite, (long)timeLeft, timeManager.getSoftLimit(), timeManager.getHardLimit(), moves, ponderHit ? 1 : 0, 0, 0, null);
+        
+        SearchEvents.TimeDecisionEvent event = new SearchEvents.TimeDecisionEvent();
+        
+        if (event.shouldCommit())
         {
-            if (timeLeft < 10*1000)
-            {
-                if (maxThinkTime > increment)
-                {
-                    thinkTime = increment;
-                    maxThinkTime = increment;
-                }
-            }
+            event.isWhite = isWhite;
+            event.timeLeft = (long)timeLeft;
+            event.increment = increment;
+            event.delay = delay;
+            event.softLimit = timeManager.getSoftLimit();
+            event.hardLimit = timeManager.getHardLimit();
+            event.movesPlayed = moves;
+            event.ponderHit = ponderHit;
+            event.commit();
         }
-            
-        System.out.println("Target time: " + thinkTime/1000 + "; Minimum time: " + minThinkTime/1000 + "; Maximum time: " + maxThinkTime/1000 + "\n\n");
     }
     
     //Find next move
-    private Move determineMove(char[][] position, LinkedList<Move> legalMoves, long zobrist)
+    //The time manager must already have been started. history holds the positions of the game up to and including this one.
+    private Move determineMove(char[][] position, LinkedList<Move> legalMoves, long zobrist, RepetitionHistory history)
     {       
         
         if (legalMoves.size() == 1) //If there is only one legal move, return that
             return legalMoves.get(0);
         
-        determineThinkTime();
+        transpositionGeneration = (transpositionGeneration+1) & 0xFF;
         
-        long startTime = System.nanoTime(); //Time when we start looking for the move
-        searchStartTime = startTime;
         int moveCount = 0;
         int remainder = 0;
         LinkedList<Move> mainMoves = new LinkedList<>(); //Moves to be analyzed by the main thread. If there is only one processing thread, this will include all legal moves.
         
-        for (int i = 0; i < legalMoves.size()/(processingThreads.length+1); i++)
+        for (int i = 0; i < legalMoves.size()/(PROCESSING_THREADS+1); i++)
         {
             mainMoves.add(legalMoves.get(moveCount));
             moveCount++;
         }
         
         //Fill processing threads with their assigned moves, if they are enabled
-        for (int i = 0; i < processingThreads.length; i++)
+        for (int i = 0; i < PROCESSING_THREADS; i++)
         {
-            for (int j = 0; j < legalMoves.size()/(processingThreads.length+1); j++)
+            for (int j = 0; j < legalMoves.size()/(PROCESSING_THREADS+1); j++)
             {
-                processingThreadMoves[i].add(legalMoves.get(moveCount));
+                processingThreadMoves.get(i).add(legalMoves.get(moveCount));
                 moveCount++;
             }
         }
@@ -363,18 +491,19 @@ public class ComputerPlayer implements Player, Runnable {
             moveCount++;
         }
         
-        //If the processing threads have work to do, turn them on
-        for (int i = 0; i < processingThreads.length; i++)
+        //If the processing threads have work to do, hand it to them. Each searches its own copy of the position.
+        for (int i = 0; i < PROCESSING_THREADS; i++)
         {
-            if (processingThreadMoves[i].size() == 0)
+            if (processingThreadMoves.get(i).size() > 0)
             {
-                processingThreadsComplete[i] = true;
+                int index = i;
+                char[][] processingPosition = Board.cloneBoard(position);
+                processingThreadResults.set(i, processingPool.submit(() -> searchProcessingThread(index, processingPosition, zobrist, history)));
             }
         }
         
-        //Reset metrics
-        leaves = 0;
-        movesAnalyzed = 0;
+        metrics.searchStarted();
+        multiPvLines = Collections.emptyList();
         
         Move choice = null;
         Move newChoice = null;
@@ -383,47 +512,86 @@ public class ComputerPlayer implements Player, Runnable {
         double timeTaken = 0;
         
         int currentDepth = -1; //How many iterations of the iterative deepening search we have executed
+        int stableIterations = 0; //Number of consecutive iterations which have agreed on the best move
+        int[] iterationScores = new int[MAX_PLY]; //Score of each completed iteration, used to detect a falling score
+        long iterationStartTime = 0; //Elapsed time when the current iteration started
+        long iterationStartNodes = 0;
+        long iterationStartEvictions = metrics.getTranspositionEvictions();
         
         //Used for alpha beta pruning. These values are arbitrary; it is only important that they be outside of the possible spectrum of move evaluations.
-        int alpha = -10000000;
-        int beta = 10000000;
+        int alpha = -INFINITE_SCORE;
+        int beta = INFINITE_SCORE;
         
-        //Determine estimated game state based on current position
-        isOpening = isOpening(position);
-        isEndgame = isEndgame(position);
+        mainState.clearPv();
+        mainState.history.copyFrom(history);
+        mainState.nodes = 0; //Everything counted has been reported, and starting from zero makes the nodes at which the limits are checked the same in every search
+        mainState.reportedNodes = 0;
         
-        while ((timeTaken*lerp(EXPECTED_TIME_MULT, EXPECTED_TIME_MULT_ENDGAME, isEndgame*0.01) < thinkTime || timeTaken < minThinkTime) && !abortSearch)
+        while ((choice == null || timeManager.shouldStartIteration()) && !abortSearch && currentDepth < maxIteration)
         {/*
             if (choice != null)
             {
                 if (currentDepth%2 == 0)
                 {
-                    alpha = (int)(choice.getValue()-WINDOW_SIZES[Math.min(currentDepth-1, WINDOW_SIZES.length-1)]);
-                    beta = (int)(choice.getValue()+WINDOW_SIZES[Math.min(currentDepth-1, WINDOW_SIZES.length-1)]);
+                    alpha = choice.getValue()-WINDOW_SIZES[Math.min(currentDepth-1, WINDOW_SIZES.length-1)];
+                    beta = choice.getValue()+WINDOW_SIZES[Math.min(currentDepth-1, WINDOW_SIZES.length-1)];
                     System.out.println(choice.getValue());
                 }
             }*/
             
-            currentDepth+=2;
+            currentDepth++;
+            
+            SearchEvents.IterationEvent iterationEvent = new SearchEvents.IterationEvent();
+            iterationEvent.begin();
                         
-            newChoice = minmax(position, 0, currentDepth, isWhite, alpha, beta, mainMoves, zobrist);
+            mainState.followPv = true;
+            newChoice = minmax(position, 0, currentDepth, isWhite, alpha, beta, mainMoves, zobrist, mainState);
+            reportMetrics(mainState);
+            iterationEvent.end();
             
             
             if (!newChoice.isAbortion())
-            {         
+            {
+                boolean bestMoveChanged = choice != null && !choice.equals(newChoice);
+                int scoreDrop = 0;
+                
+                if (choice != null && choice.equals(newChoice))
+                    stableIterations++;
+                else
+                    stableIterations = 0;
+                
+                //Compare against the iteration two plies shallower, since scores alternate between odd and even depths
+                if (currentDepth >= 2)
+                    scoreDrop = isWhite ? iterationScores[currentDepth-2]-newChoice.getValue() : newChoice.getValue()-iterationScores[currentDepth-2];
+                
+                iterationScores[currentDepth] = newChoice.getValue();
+                
                 choice = newChoice;
+                mainState.savePv();
+                publishPv(mainState);
                 
-                if (newChoice.getValue() == 0)
-                {
-                    System.out.println("ZERO");
-                }
+                if (multiPv > 1)
+                    searchMultiPv(position, currentDepth, mainMoves, zobrist, choice, metrics.getSearchNodes()-iterationStartNodes);
+                
+                timeManager.iterationComplete(bestMoveChanged, scoreDrop, stableIterations);
             }
             else
             {
-                currentDepth-=2;
-                if (choice.getValue() == 0)
+                currentDepth--;
+                
+                long stopLatency = stopRequestTime != 0 ? (System.nanoTime()-stopRequestTime)/1000 : -1;
+                SearchLog.log(SearchLog.EVENT_ABORT, isWhite, currentDepth, timeManager.getElapsed(), stopLatency);
+                
+                SearchEvents.AbortEvent abortEvent = new SearchEvents.AbortEvent();
+                
+                if (abortEvent.shouldCommit())
                 {
-                    System.out.println("CHANGE ERROR ");
+                    abortEvent.isWhite = isWhite;
+                    abortEvent.completedDepth = currentDepth;
+                    abortEvent.elapsed = timeManager.getElapsed();
+                    abortEvent.stopped = stopLatency >= 0;
+                    abortEvent.stopLatency = Math.max(stopLatency, 0);
+                    abortEvent.commit();
                 }
             }
             
@@ -435,394 +603,557 @@ public class ComputerPlayer implements Player, Runnable {
                 System.out.println("Repeating depth " + currentDepth);
                 System.out.println(alpha + " " + beta + " " + choice.getValue());
                 
-                alpha = -10000000;
-                beta = 10000000;
+                alpha = -INFINITE_SCORE;
+                beta = INFINITE_SCORE;
                 
                 continue;
             }*/
             
-            //reorderMoves(mainMoves, choice);
-            timeTaken = (System.nanoTime()-startTime)/1000000;
-                        
-            System.out.println("Depth: " + currentDepth + "; Time: " + timeTaken + " " + newChoice);
+            if (!newChoice.isAbortion())
+                reorderMoves(mainMoves, choice); //Search the previous best move first on the next iteration
+            
+            timeTaken = timeManager.getElapsed();
+            
+            if (!newChoice.isAbortion())
+            {
+                metrics.iterationCompleted(currentDepth, (long)timeTaken-iterationStartTime);
+                iterationStartTime = (long)timeTaken;
+                
+                if (iterationEvent.shouldCommit())
+                {
+                    iterationEvent.isWhite = isWhite;
+                    iterationEvent.depth = currentDepth;
+                    iterationEvent.score = choice.getValue();
+                    iterationEvent.nodes = metrics.getSearchNodes()-iterationStartNodes;
+                    iterationEvent.bestMove = choice.toString();
+                    iterationEvent.commit();
+                }
+                
+                SearchEvents.TranspositionEvent transpositionEvent = new SearchEvents.TranspositionEvent();
+                
+                if (transpositionEvent.shouldCommit())
+                {
+                    transpositionEvent.entries = transpositionEntries;
+                    transpositionEvent.capacity = TRANSPOSITION_MASK+1;
+                    transpositionEvent.fill = (double)transpositionEntries/(TRANSPOSITION_MASK+1);
+                    transpositionEvent.evictions = metrics.getTranspositionEvictions()-iterationStartEvictions;
+                    transpositionEvent.commit();
+                }
+                
+                iterationStartNodes = metrics.getSearchNodes();
+                iterationStartEvictions = metrics.getTranspositionEvictions();
+                
+                SearchLog.log(SearchLog.EVENT_ITERATION, isWhite, currentDepth, choice.getValue(), metrics.getSearchNodes(), metrics.getNodesPerSecond(),
+                        (long)timeTaken, stableIterations, (long)(timeManager.getBranchingFactor()*100), principalVariation);
+                
+                if (mateLimit > 0 && (isWhite ? choice.getValue() : -choice.getValue()) >= MATE_SCORE-mateLimit) //The mate asked for has been found
+                    break;
+            }
             
         }
         
         
-        System.out.println("Main");
+        if (choice == null) //Stopped before the first iteration completed
+            choice = mainMoves.get(0);
         
-        boolean exit = true;
-                
-        while (true)
+        //Wait for the processing threads to finish and take the best of their moves
+        for (int i = 0; i < PROCESSING_THREADS; i++)
         {
-            exit = true;
-            for (int i = 0; i < processingThreadsComplete.length; i++)
-            {
-                if (!processingThreadsComplete[i])
-                    exit = false;
-            }
+            Move processingThreadChoice = null;
             
-            if (exit)
+            if (processingThreadResults.get(i) != null)
             {
-                break;
+                try {
+                    processingThreadChoice = processingThreadResults.get(i).get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    Logger.getLogger(ComputerPlayer.class.getName()).log(Level.SEVERE, null, ex);
+                }
             }
-        }
-                
-        for (int i = 0; i < processingThreads.length; i++)
-        {
-            if (processingThreadChoice[i] != null)
+            
+            if (processingThreadChoice != null)
             {
-                if ((processingThreadChoice[i].getValue() > choice.getValue())^(!isWhite))
+                if ((processingThreadChoice.getValue() > choice.getValue())^(!isWhite))
                 {
-                    if (abortSearch)
-                        if (choice.getValue() == 0)
-                            System.out.println("ERR ERR ERR ERR ERR ERR ERR " + i + " " + choice.isAbortion());
-                    
-                    choice = processingThreadChoice[i];
-                    
+                    choice = processingThreadChoice;
                 }
             }
         }
                 
-        for (int i = 0; i < processingThreads.length; i++)
+        for (int i = 0; i < PROCESSING_THREADS; i++)
         {
-            processingThreadsComplete[i] = false;
-            processingThreadMoves[i].clear();
-            processingThreadChoice[i] = null;
+            processingThreadMoves.get(i).clear();
+            processingThreadResults.set(i, null);
         }
         
-        abortSearch = false;
-        
-        timeTaken = (System.nanoTime()-startTime)/1000000;
-        
-        totalMovesAnalyzed += movesAnalyzed;        
-        totalTime += timeTaken;
+        timeTaken = timeManager.getElapsed();
         
+        metrics.setTranspositionEntries(transpositionEntries);
+        metrics.searchFinished();
         
-        System.out.println("Move chosen: " + choice);
-        System.out.println("Depth reached: " + currentDepth);
-        System.out.println("Transposition size: " + transpositionMap.size());
-        System.out.println("Leaves: " + leaves);
-        System.out.println("Evaluation: " + choice.getValue());
-        System.out.println("Rough eval: " + evaluateLeaf(position));
-        System.out.println("Moves analyzed: " + movesAnalyzed);
-        System.out.println("Time taken (ms): " + timeTaken);
-        System.out.println("Time per move: " + timeTaken/movesAnalyzed);
-        System.out.println("Opening percent: " + isOpening(position));
-        System.out.println("Middlegame percent: " + isMiddlegame(position));
-        System.out.println("Endgame percent: " + isEndgame(position));
+        LinkedList<Move> variation = principalVariation;
         
-        System.out.println("Avg time per move: " + totalTime/totalMovesAnalyzed+"\n\n");
-        System.out.println("\n" + Board.getMoves()+"\n");
-        
-        //if (transpositionMap.size() > MAX_HASH_SIZE*0.75)
-        //transpositionMap.clear();
+        SearchLog.log(SearchLog.EVENT_RESULT, isWhite, currentDepth, choice.getValue(), (long)timeTaken, metrics.getSearchNodes(), metrics.getNodesPerSecond(), transpositionEntries, 0,
+                !variation.isEmpty() && variation.getFirst().equals(choice) ? variation : Collections.singletonList(choice));
         
         return choice;
     }
     
-    //Counts the raw material of a given position (9 for queen, 5 for rook, 3 for knight and bishop, 1 for pawn)
-    private static int totalMaterial(char[][] position)
+    /**
+     * Searches the root moves again, excluding those already reported, until multiPv lines are found or the root moves run out.
+     * The lines replace those of the previous iteration only if every pass completes.
+     * @param depth Depth of the iteration which found the best move
+     * @param rootMoves Root moves searched by the main thread
+     * @param best Best move of the iteration, already published with its variation
+     * @param mainPassNodes Nodes searched by the iteration before the extra passes, used to report their overhead
+     */
+    private void searchMultiPv(char[][] position, int depth, LinkedList<Move> rootMoves, long zobrist, Move best, long mainPassNodes)
     {
-        int material = 0;
+        LinkedList<PvLine> lines = new LinkedList<>();
+        lines.add(new PvLine(depth, best.getValue(), principalVariation));
         
-        for (int i = 0; i < 8; i++)
+        //The passes search copies, so that the node counts and values of the root moves, by which the next iteration orders them, are those of the main pass
+        LinkedList<Move> remaining = new LinkedList<>();
+        
+        for (Move move : rootMoves)
         {
-            for (int j = 0; j < 8; j++)
-            {
-                switch (Character.toLowerCase(position[i][j]))
-                {
-                    case 'p':
-                        material++;
-                        break;
-                    case 'n':
-                        material+=3;
-                        break;
-                    case 'b':
-                        material+=3;
-                        break;
-                    case 'r':
-                        material+=5;
-                        break;
-                    case 'q':
-                        material+=9;
-                        break;
-                }
-            }
+            if (!move.equals(best))
+                remaining.add(move.copy());
         }
         
-        return material;
-    }
-    
-    //Calculates how much raw material is on its starting square, used to estimate what stage the game is in
-    private static int materialOnStartingSquares(char[][] position)
-    {
-        int material = 0;
+        long nodesBefore = metrics.getSearchNodes();
         
-        for (int i = 0; i < 8; i++)
+        while (lines.size() < multiPv && !remaining.isEmpty())
         {
-            for (int j = 0; j < 8; j++)
-            {
-                if (Board.STARTING_POSITION[i][j] == position[i][j])
-                {
-                    switch (Character.toLowerCase(position[i][j]))
-                    {
-                        case 'p':
-                            material++;
-                            break;
-                        case 'n':
-                            material+=3;
-                            break;
-                        case 'b':
-                            material+=3;
-                            break;
-                        case 'r':
-                            material+=5;
-                            break;
-                        case 'q':
-                            material+=9;
-                            break;
-                    }
-                }
-            }
+            //Each pass uses the full window, so the best remaining move's score is exact
+            mainState.followPv = false;
+            Move next = minmax(position, 0, depth, isWhite, -INFINITE_SCORE, INFINITE_SCORE, remaining, zobrist, mainState);
+            reportMetrics(mainState);
+            
+            if (next.isAbortion())
+                break;
+            
+            LinkedList<Move> variation = new LinkedList<>();
+            
+            for (int i = 0; i < mainState.pvLength[0]; i++)
+                variation.add(mainState.pvTable[0][i]);
+            
+            lines.add(new PvLine(depth, next.getValue(), variation));
+            remaining.remove(next);
+        }
+        
+        long extraNodes = metrics.getSearchNodes()-nodesBefore;
+        metrics.addMultiPvNodes(extraNodes);
+        
+        if (abortSearch)
+            return;
+        
+        multiPvLines = Collections.unmodifiableList(lines);
+        
+        int rank = 1;
+        
+        for (PvLine line : lines)
+        {
+            SearchLog.log(SearchLog.EVENT_PV_LINE, isWhite, depth, rank, line.score, 0, 0, 0, 0, line.moves);
+            rank++;
         }
         
-        return material;
+        SearchLog.log(SearchLog.EVENT_MULTI_PV, isWhite, depth, lines.size(), mainPassNodes, extraNodes, extraNodes*100/Math.max(mainPassNodes, 1), 0, 0, null);
     }
     
-    private static double isOpening(char[][] position)
+    //Returns the lines of the last iteration analysed in full in multi-PV mode, best first. Empty unless multi-PV mode is on.
+    public List<PvLine> getMultiPv()
     {
-        double openingValue = 0;
+        return multiPvLines;
+    }
+    
+    //Sets how many root moves are analysed with exact scores. 1 turns multi-PV mode off.
+    public void setMultiPv(int lines)
+    {
+        multiPv = Math.max(lines, 1);
+    }
+    
+    //Reads the network named by the chess.nnue property, if any
+    private static Nnue loadNetwork()
+    {
+        String path = System.getProperty("chess.nnue");
         
-        openingValue += totalMaterial(position)-70;
+        if (path == null || path.isEmpty())
+            return null;
         
-        openingValue += materialOnStartingSquares(position);
-                
-        return (openingValue/86)*100;
+        try {
+            return Nnue.load(Paths.get(path));
+        } catch (IOException ex) {
+            Logger.getLogger(ComputerPlayer.class.getName()).log(Level.WARNING, "Could not load the network " + path + ", using the handcrafted evaluation", ex);
+            return null;
+        }
     }
     
-    private static double isMiddlegame(char[][] position)
+    public Nnue getNetwork()
     {
-        double middlegameValue = 0;
-        
-        middlegameValue += (totalMaterial(position)-25);
-        middlegameValue -= (materialOnStartingSquares(position)-25);
+        return network;
+    }
+    
+    //Sets the network which evaluates the leaves, or null for the handcrafted evaluation. Takes effect from the next search.
+    public void setNetwork(Nnue network)
+    {
+        if (isThinking || isPondering)
+            throw new IllegalStateException("The player is searching");
         
-        return (middlegameValue/45)*100;
+        this.network = network;
+        evalCache.clear(); //Its scores came from the other evaluation
+    }
+    
+    public boolean isLazyEvaluation()
+    {
+        return lazyEvaluation;
     }
     
-    private static double isEndgame(char[][] position)
+    public void setLazyEvaluation(boolean lazyEvaluation)
     {
-        double endgameValue = 0;
+        this.lazyEvaluation = lazyEvaluation;
+    }
+    
+    //Publishes the principal variation of the last completed iteration
+    private void publishPv(SearchState state)
+    {
+        LinkedList<Move> pv = new LinkedList<>();
         
-        endgameValue = 78-totalMaterial(position);
+        for (int i = 0; i < state.lastPvLength; i++)
+            pv.add(state.lastPv[i]);
         
-        return (endgameValue/78)*100;
+        principalVariation = pv;
     }
     
     //Performs a rough evaluation of a given position (a leaf of the search tree)
-    private double evaluateLeaf(char[][] position)
+    //Material and piece-square values are kept up to date by makeMove, so only mobility and king safety are computed here
+    //Terms are scored separately for the opening and the endgame, then blended by the game phase
+    //Pawn structure and king shelter depend only on the pawns, and are looked up in the pawn table
+    //Whole evaluations are kept in the evaluation cache, so a leaf reached again through a transposition is not evaluated twice
+    //Leaves far outside the alpha-beta window are scored lazily, by material and piece-square values alone. Such a score is only a bound, so it is not cached.
+    private int evaluateLeaf(char[][] position, long zobrist, int alpha, int beta, SearchState state)
     {        
-        int availableMoves;
+        state.evalProbes++;
+        long cached = evalCache.probe(zobrist);
         
-        leaves++;
-        double value = 0;
+        if (EvalCache.matches(zobrist, cached))
+        {
+            state.evalHits++;
+            return EvalCache.getScore(cached);
+        }
+        
+        if (state.accumulator != null)
+        {
+            int value = state.accumulator.evaluate();
+            evalCache.store(zobrist, value);
+            
+            return value;
+        }
+        
+        if (lazyEvaluation)
+        {
+            int lazyValue = Evaluation.taper(Evaluation.getOpeningSum(position), Evaluation.getEndgameSum(position), Evaluation.getPhase(position));
+            
+            if (lazyValue+LAZY_MARGIN <= alpha || lazyValue-LAZY_MARGIN >= beta)
+            {
+                state.lazyExits++;
+                return lazyValue;
+            }
+        }
+        
+        int value = evaluate(position, pawnTable, state);
+        evalCache.store(zobrist, value);
+        
+        return value;
+    }
+    
+    //Static evaluation of a position, bypassing the evaluation cache, for benchmarks. Must not be called while the player is searching.
+    int evaluate(char[][] position)
+    {
+        return evaluate(position, pawnTable, mainState);
+    }
+    
+    //Static evaluation of a position with the current evaluation parameters, bypassing every cache, for tuning
+    static int evaluateUncached(char[][] position)
+    {
+        return evaluate(position, null, null);
+    }
+    
+    //Each piece's attacked squares are found once, and give both its mobility and its attacks on the squares around the enemy king
+    //Without a pawn table the pawn structure is calculated afresh, and without a search state nothing is counted
+    private static int evaluate(char[][] position, PawnTable pawnTable, SearchState state)
+    {
+        int[] parameters = Evaluation.getParameterValues();
+        int knightMobility = parameters[EvaluationParameters.KNIGHT_MOBILITY];
+        int bishopMobility = parameters[EvaluationParameters.BISHOP_MOBILITY];
+        int rookMobilityOpening = parameters[EvaluationParameters.ROOK_MOBILITY_OPENING];
+        int rookMobilityEndgame = parameters[EvaluationParameters.ROOK_MOBILITY_ENDGAME];
+        int queenMobility = parameters[EvaluationParameters.QUEEN_MOBILITY];
+        int kingAttackScale = parameters[EvaluationParameters.KING_ATTACK_SCALE];
+        
+        long pawnKey = 0;
+        long whitePieces = 0, blackPieces = 0; //Squares occupied by each side
+        long pawnsAndKings = 0;
+        int whiteKing = 0, blackKing = 0; //Squares of the kings
         
         for (int i = 0; i < 8; i++)
         {
             for (int j = 0; j < 8; j++)
             {
-                switch (position[i][j])
+                char piece = position[i][j];
+                
+                if (piece == ' ')
+                    continue;
+                
+                long square = 1L << (i*8+j);
+                
+                if (Character.isLowerCase(piece))
+                    whitePieces |= square;
+                else
+                    blackPieces |= square;
+                
+                switch (piece)
                 {
                     case 'p':
-                        value += 17; //Base value of piece
-                        value += CENTRALIZATION[i][j]*4; //Pawns are more valuable if centralized
-                        value -= i*1; //More advanced pawns are more valuable
+                        pawnKey ^= Board.getPawnZobrist(true, j, i);
+                        pawnsAndKings |= square;
                         break;
                     case 'P':
-                        value -= 17;
-                        value -= CENTRALIZATION[i][j]*4;
-                        value += 7-(i*1);
-                        
-                        break;
-                    case 'n':
-                        value += 35;
-                        value += (CENTRALIZATION[i][j]-0.5)*5;
-                        
-                        //Knights on the fifth and sixth rank are particularly valuable
-                        if (i == 4)
-                            value += 5;
-                        if (i == 5 || i == 6)
-                            value += 10;
-                        
-                        availableMoves = Board.findKnightMoves(position, true, j, i);
-                        
-                        value += (availableMoves-2)*2;
-                        
-                        break;
-                    case 'N':
-                        value -= 35;
-                        
-                        value -= (CENTRALIZATION[i][j]-0.5)*5;
-                        
-                        if (i == 3)
-                            value -= 5;
-                        if (i == 2 || i == 1)
-                            value -= 10;
-                        
-                        availableMoves = Board.findKnightMoves(position, false, j, i);
-                        
-                        value -= (availableMoves-2)*2;
-                        
-                        break;
-                    case 'b':
-                        value += 40;
-                        
-                        value += (BISHOP_POSITION_VALUES[i][j]-0.35)*8;
-                        
-                        availableMoves = Board.findBishopMoves(position, true, j, i);
-                        
-                        value += availableMoves;
-                        
-                        break;
-                    case 'B':
-                        value -= 40;
-                        
-                        value -= (BISHOP_POSITION_VALUES[i][j]-0.35)*8;
-                        
-                        availableMoves = Board.findBishopMoves(position, false, j, i);
-                        
-                        value -= availableMoves;
-                        
-                        break;
-                    case 'r':
-                        value += 60;
-                        
-                        availableMoves = Board.findRookMoves(position, true, j, i);
-                        
-                        
-                        value += availableMoves*0.5;
-                        if (isEndgame > 50)
-                            value += availableMoves;
-                        
-                        break;
-                    case 'R':
-                        value -= 60;
-                        
-                        availableMoves = Board.findRookMoves(position, false, j, i);
-                        
-                        
-                        value -= availableMoves*0.5;
-                        if (isEndgame > 50)
-                            value -= availableMoves;
-                        
-                        break;
-                    case 'q':
-                        value += 95;
-                        
-                        availableMoves = Board.findRookMoves(position, true, j, i);
-                        availableMoves += Board.findBishopMoves(position, true, j, i);
-                        
-                        if (isMiddlegame > 25)
-                            value += availableMoves;
-                        
-                        //value += 20*CENTRALIZATION[i][j];
+                        pawnKey ^= Board.getPawnZobrist(false, j, i);
+                        pawnsAndKings |= square;
                         break;
-                    case 'Q':
-                        value -= 95;
-                        
-                        availableMoves = Board.findRookMoves(position, false, j, i);
-                        availableMoves += Board.findBishopMoves(position, false, j, i);
-                        
-                        if (isMiddlegame > 25)
-                            value -= availableMoves;
-                        
-                        //value -= 20*CENTRALIZATION[i][j];
-                        break;
-                    case 'k':     
-                        
-                        if ((j == 7 || j == 6) && isEndgame < 65)
-                        {
-                            value += 20;
-                            
-                            if (position[6][5] != 'p')
-                                value -= 2;
-                            if (position[6][6] != 'p')
-                                value -= 2;
-                            if (position[6][7] != 'p')
-                                value -= 2;
-                        }
-                        else if ((j == 0 || j == 1 || j == 2) && isEndgame < 65)
-                        {
-                            value += 15;
-                            
-                            if (position[6][0] != 'p')
-                                value -= 1.5;
-                            if (position[6][1] != 'p')
-                                value -= 1.5;
-                            if (position[6][2] != 'p')
-                                value -= 1.5;
-                        }
-                        else if (isEndgame < 65 && (position[8][3] == '0' || position[8][3] == '2'))
-                        {
-                            if (position[8][4] == '0' || position[8][4] == '2')
-                                value += 4;
-                            if (position[8][5] == '0' || position[8][5] == '2')
-                                value += 6;
-                        }
-                         
-                        if (isEndgame > 70)
-                        {
-                            value += CENTRALIZATION[i][j]*16;
-                        }
-                            
+                    case 'k':
+                        whiteKing = i*8+j;
+                        pawnsAndKings |= square;
                         break;
-                        
                     case 'K':
-                        if ((j == 7 || j == 6) && isEndgame < 65)
-                        {
-                            value -= 20;
-                            
-                            if (position[1][5] != 'P')
-                                value += 2;
-                            if (position[1][6] != 'P')
-                                value += 2;
-                            if (position[1][7] != 'P')
-                                value += 2;
-                            
-                        }
-                        else if ((j == 0 || j == 1 || j == 2) && isEndgame < 65)
-                        {
-                            value -= 15;
-                            
-                            if (position[1][0] != 'p')
-                                value += 1.5;
-                            if (position[1][1] != 'p')
-                                value += 1.5;
-                            if (position[1][2] != 'p')
-                                value += 1.5;
-                            
-                        }
-                        else if (isEndgame < 65 && (position[8][3] == '0' || position[8][3] == '1'))
-                        {
-                            if (position[8][4] == '0' || position[8][4] == '1')
-                                value -= 4;
-                            if (position[8][5] == '0' || position[8][5] == '1')
-                                value -= 6;
-                        }
-                        
-                        if (isEndgame > 70)
-                        {
-                            value -= CENTRALIZATION[i][j]*16;
-                        }
-                        
+                        blackKing = i*8+j;
+                        pawnsAndKings |= square;
                         break;
                 }
             }
-        }        
+        }
+        
+        long occupied = whitePieces | blackPieces;
+        long whiteKingZone = Attacks.kingZone(whiteKing);
+        long blackKingZone = Attacks.kingZone(blackKing);
+        int whiteKingAttacks = 0, blackKingAttacks = 0; //Weighted attacks on the squares around each king
+        long attacks;
+        int availableMoves;
         
+        int value = 0; //Terms which count the same in every phase
+        int opening = Evaluation.getOpeningSum(position);
+        int endgame = Evaluation.getEndgameSum(position);
         
-        return value;
+        //Mobility counts the attacked squares not occupied by the piece's own side
+        for (long pieces = occupied & ~pawnsAndKings; pieces != 0; pieces &= pieces-1)
+        {
+            int square = Long.numberOfTrailingZeros(pieces);
+            
+            switch (position[square >> 3][square & 7])
+            {
+                case 'n':
+                    attacks = Attacks.knight(square);
+                    availableMoves = Long.bitCount(attacks & ~whitePieces);
+                    
+                    value += (availableMoves-2)*knightMobility;
+                    blackKingAttacks += Long.bitCount(attacks & blackKingZone)*KNIGHT_KING_ATTACK;
+                    
+                    break;
+                case 'N':
+                    attacks = Attacks.knight(square);
+                    availableMoves = Long.bitCount(attacks & ~blackPieces);
+                    
+                    value -= (availableMoves-2)*knightMobility;
+                    whiteKingAttacks += Long.bitCount(attacks & whiteKingZone)*KNIGHT_KING_ATTACK;
+                    
+                    break;
+                case 'b':
+                    attacks = Attacks.bishop(square, occupied);
+                    availableMoves = Long.bitCount(attacks & ~whitePieces);
+                    
+                    value += availableMoves*bishopMobility;
+                    blackKingAttacks += Long.bitCount(attacks & blackKingZone)*BISHOP_KING_ATTACK;
+                    
+                    break;
+                case 'B':
+                    attacks = Attacks.bishop(square, occupied);
+                    availableMoves = Long.bitCount(attacks & ~blackPieces);
+                    
+                    value -= availableMoves*bishopMobility;
+                    whiteKingAttacks += Long.bitCount(attacks & whiteKingZone)*BISHOP_KING_ATTACK;
+                    
+                    break;
+                case 'r':
+                    attacks = Attacks.rook(square, occupied);
+                    availableMoves = Long.bitCount(attacks & ~whitePieces);
+                    
+                    opening += availableMoves*rookMobilityOpening;
+                    endgame += availableMoves*rookMobilityEndgame; //Rooks need open lines most in the endgame
+                    blackKingAttacks += Long.bitCount(attacks & blackKingZone)*ROOK_KING_ATTACK;
+                    
+                    break;
+                case 'R':
+                    attacks = Attacks.rook(square, occupied);
+                    availableMoves = Long.bitCount(attacks & ~blackPieces);
+                    
+                    opening -= availableMoves*rookMobilityOpening;
+                    endgame -= availableMoves*rookMobilityEndgame;
+                    whiteKingAttacks += Long.bitCount(attacks & whiteKingZone)*ROOK_KING_ATTACK;
+                    
+                    break;
+                case 'q':
+                    attacks = Attacks.queen(square, occupied);
+                    availableMoves = Long.bitCount(attacks & ~whitePieces);
+                    
+                    opening += availableMoves*queenMobility;
+                    blackKingAttacks += Long.bitCount(attacks & blackKingZone)*QUEEN_KING_ATTACK;
+                    
+                    break;
+                case 'Q':
+                    attacks = Attacks.queen(square, occupied);
+                    availableMoves = Long.bitCount(attacks & ~blackPieces);
+                    
+                    opening -= availableMoves*queenMobility;
+                    whiteKingAttacks += Long.bitCount(attacks & whiteKingZone)*QUEEN_KING_ATTACK;
+                    
+                    break;
+            }
+        }
+        
+        //Attacks on the king's surroundings grow more dangerous the more of them there are
+        opening -= KING_ATTACK_VALUES[Math.min(whiteKingAttacks, KING_ATTACK_VALUES.length-1)]*kingAttackScale/100;
+        opening += KING_ATTACK_VALUES[Math.min(blackKingAttacks, KING_ATTACK_VALUES.length-1)]*kingAttackScale/100;
+        
+        long pawns = pawnTable != null ? pawnTable.probe(pawnKey) : 0;
+        
+        if (state != null)
+        {
+            state.pawnProbes++;
+            
+            if (pawns != 0)
+                state.pawnHits++;
+        }
+        
+        if (pawns == 0)
+        {
+            pawns = PawnTable.evaluate(position);
+            
+            if (pawnTable != null)
+                pawnTable.store(pawnKey, pawns);
+        }
+        
+        opening += PawnTable.getOpening(pawns);
+        endgame += PawnTable.getEndgame(pawns);
+        
+        //A castled king is safer the more of the pawns in front of it remain. An uncastled one is better off the more castling rights it keeps.
+        int whiteKingFile = whiteKing & 7;
+        int blackKingFile = blackKing & 7;
+        
+        int kingsideCastled = parameters[EvaluationParameters.KINGSIDE_CASTLED], kingsideShelter = parameters[EvaluationParameters.KINGSIDE_SHELTER];
+        int queensideCastled = parameters[EvaluationParameters.QUEENSIDE_CASTLED], queensideShelter = parameters[EvaluationParameters.QUEENSIDE_SHELTER];
+        
+        if (whiteKingFile == 7 || whiteKingFile == 6)
+            opening += kingsideCastled - PawnTable.getMissingShelter(pawns, true, true)*kingsideShelter;
+        else if (whiteKingFile == 0 || whiteKingFile == 1 || whiteKingFile == 2)
+            opening += queensideCastled - PawnTable.getMissingShelter(pawns, true, false)*queensideShelter;
+        else if (position[8][3] == '0' || position[8][3] == '2')
+        {
+            if (position[8][4] == '0' || position[8][4] == '2')
+                opening += parameters[EvaluationParameters.QUEENSIDE_CASTLING_RIGHT];
+            if (position[8][5] == '0' || position[8][5] == '2')
+                opening += parameters[EvaluationParameters.KINGSIDE_CASTLING_RIGHT];
+        }
+        
+        if (blackKingFile == 7 || blackKingFile == 6)
+            opening -= kingsideCastled - PawnTable.getMissingShelter(pawns, false, true)*kingsideShelter;
+        else if (blackKingFile == 0 || blackKingFile == 1 || blackKingFile == 2)
+            opening -= queensideCastled - PawnTable.getMissingShelter(pawns, false, false)*queensideShelter;
+        else if (position[8][3] == '0' || position[8][3] == '1')
+        {
+            if (position[8][4] == '0' || position[8][4] == '1')
+                opening -= parameters[EvaluationParameters.QUEENSIDE_CASTLING_RIGHT];
+            if (position[8][5] == '0' || position[8][5] == '1')
+                opening -= parameters[EvaluationParameters.KINGSIDE_CASTLING_RIGHT];
+        }
+        
+        return value + Evaluation.taper(opening, endgame, Evaluation.getPhase(position));
+    }
+    
+    //Returns true if a score encodes a forced mate rather than an evaluation
+    private static boolean isMateScore(int score)
+    {
+        return score > MATE_BOUND || score < -MATE_BOUND;
+    }
+    
+    //Looks up the transposition table. Returns true if an entry for the given hash searched to at least the given depth was found, storing its score in the given move.
+    private boolean probeTransposition(long zobrist, int depth, Move move, SearchState state)
+    {
+        int index = (int)zobrist & TRANSPOSITION_MASK;
+        long data = transpositionData[index];
+        long key = transpositionKeys[index] ^ data;
+        
+        state.transpositionProbes++;
+        
+        if (key != zobrist)
+        {
+            if (key != 0 || data != 0)
+                state.transpositionCollisions++;
+            
+            return false;
+        }
+        
+        if (((data >>> 16) & 0xFF) < depth)
+            return false;
+        
+        state.transpositionHits++;
+        move.setValue((short)data);
+        return true;
+    }
+    
+    //Adds the counts of a search thread to the metrics
+    private void reportMetrics(SearchState state)
+    {
+        metrics.add(state.nodes-state.reportedNodes+state.leaves, state.leaves, state.transpositionProbes, state.transpositionHits, state.transpositionCollisions, state.transpositionEvictions,
+                state.cutoffs, state.firstMoveCutoffs);
+        
+        state.reportedNodes = state.nodes;
+        state.leaves = 0;
+        state.transpositionProbes = 0;
+        state.transpositionHits = 0;
+        state.transpositionCollisions = 0;
+        state.transpositionEvictions = 0;
+        state.cutoffs = 0;
+        state.firstMoveCutoffs = 0;
+        
+        metrics.addPawnHashCounts(state.pawnProbes, state.pawnHits);
+        state.pawnProbes = 0;
+        state.pawnHits = 0;
+        
+        metrics.addEvalCacheCounts(state.evalProbes, state.evalHits);
+        state.evalProbes = 0;
+        state.evalHits = 0;
+        
+        metrics.addLazyEvalExits(state.lazyExits);
+        state.lazyExits = 0;
+    }
+    
+    //Stores a score in the transposition table. An existing entry is only replaced by one searched at least as deeply, unless it was stored by an older search.
+    private void storeTransposition(long zobrist, int depth, int score, SearchState state)
+    {
+        int index = (int)zobrist & TRANSPOSITION_MASK;
+        long oldData = transpositionData[index];
+        
+        if (transpositionKeys[index] == 0 && oldData == 0)
+            transpositionEntries++;
+        else if (((oldData >>> 24) & 0xFF) == transpositionGeneration && ((oldData >>> 16) & 0xFF) > depth)
+            return;
+        else if ((transpositionKeys[index] ^ oldData) != zobrist)
+            state.transpositionEvictions++;
+        
+        long data = (score & 0xFFFFL) | ((long)Math.min(depth, 0xFF) << 16) | ((long)transpositionGeneration << 24);
+        
+        transpositionData[index] = data;
+        transpositionKeys[index] = zobrist ^ data;
     }
     
     /**
@@ -835,25 +1166,31 @@ public class ComputerPlayer implements Player, Runnable {
      * @param beta Maximum score the minimizing player is assured of
      * @param legalMoves List of all legal moves in a given position. If null, the list of legal moves will be determined
      * @param zobrist Zobrist hash of the current position
+     * @param state Search state of the calling thread, which receives the principal variation from this node
      * @return The move determined
      */
-    private Move minmax(char[][] position, int depth, int maxDepth, boolean isWhite, double alpha, double beta, LinkedList<Move> legalMoves, long zobrist)
+    private Move minmax(char[][] position, int depth, int maxDepth, boolean isWhite, int alpha, int beta, LinkedList<Move> legalMoves, long zobrist, SearchState state)
     {
-        movesAnalyzed++;
+        state.pvLength[depth] = depth;
         
-        //If we're out of time, abort search
-        if (!abortSearch && (System.nanoTime()-searchStartTime)/1000000 > maxThinkTime)
+        if (depth == 0)
+            prepareAccumulator(position, state);
+        
+        //If we're out of time, abort search. Reading the clock is comparatively expensive, so it is only done every few nodes, along with reporting metrics.
+        if ((++state.nodes & ABORT_CHECK_MASK) == 0)
         {
-            abortSearch = true;
-            System.out.println("Aborted " + (System.nanoTime()-searchStartTime)/1000000);
+            reportMetrics(state);
+            
+            if (!abortSearch && (timeManager.hardLimitReached() || nodeLimit > 0 && metrics.getSearchNodes() >= nodeLimit))
+                abortSearch = true;
         }
         
         Move move = null;
         
         //Initiate best value to an unreachably terrible score
-        double bestValue = 1000;
+        int bestValue = INFINITE_SCORE;
         if (isWhite)
-            bestValue = -1000;
+            bestValue = -INFINITE_SCORE;
         
         if (legalMoves == null)
         {
@@ -862,10 +1199,18 @@ public class ComputerPlayer implements Player, Runnable {
             else
                 legalMoves = Board.getLegalMoves(position, isWhite, false);
         }
+        
+        //If this node lies on the previous principal variation, search the move it continues with first
+        boolean followingPv = state.followPv && depth < state.lastPvLength;
+        state.followPv = false;
+        
+        if (followingPv && legalMoves.remove(state.lastPv[depth]))
+            legalMoves.add(0, state.lastPv[depth]);
+        else
+            followingPv = false;
 
         
         //LinkedList<Move> captureMoves = new LinkedList<Move>();
-        HashSet<Long> previousPositions;
         
         //captureMoves = Board.getLegalMoves(position, isWhite);
         
@@ -876,49 +1221,47 @@ public class ComputerPlayer implements Player, Runnable {
 
 
             boolean cutoff = true;
-            boolean isRepeat = false;
+            boolean isDraw = false;
+            
+            state.pvLength[depth+1] = depth+1; //Child's variation is empty unless it is searched
+            state.followPv = followingPv && candidateMove == legalMoves.getFirst();
             zobrist = Board.makeMove(position, candidateMove, false, 0); //Ideally, makeMove would return the correct zobrist value, however in the current implementation, it returns only a placeholder.
 
             zobrist = Board.calculateZobrist(position);
-            previousPositions = Board.getPreviousPositions();
             
-            /*
-            for (int i = 0; i < previousPositions.length; i++)
-            {
-                if (zobrist == previousPositions[i])
-                {
-                    candidateMove.setValue(0);
-                    isRepeat = true;
-                }
-            }*/
+            if (state.accumulator != null)
+                state.accumulator.update(depth+1, position, candidateMove);
             
-            boolean inTransposition = false;
-            if (transpositionMap.containsKey(zobrist))
-            {
-                TranspositionElement element = transpositionMap.get(zobrist);
-                
-                if (element.depth >= maxDepth-depth && element.eval < 1000 && element.eval > -1000)
-                {
-                    inTransposition = true;
-                    candidateMove.setValue(element.eval);
-                    //System.out.println("Severed at " + depth);
-                }
-            }
+            //A position repeated from the game or from earlier in the line being searched is scored as a draw
+            boolean irreversible = Board.isIrreversible(position, candidateMove);
             
-            if (previousPositions.contains(zobrist))
-            {
+            if (state.history.isRepetition(zobrist, irreversible))
+                isDraw = true;
+            
+            //So are positions drawn by the fifty-move rule, unless the move mates, and, since material only changes on captures, positions where a capture left insufficient material
+            if (Board.getHalfmoveClock(position) >= 100 && (!Board.isInCheck(position) || !Board.checkGameOver(position, !isWhite)))
+                isDraw = true;
+            else if ((candidateMove.getCapturedPiece() != ' ' || candidateMove.isEnPassant()) && Board.isInsufficientMaterial(position))
+                isDraw = true;
+            
+            if (isDraw)
                 candidateMove.setValue(0);
-                isRepeat = true;
-            }
             
-            if (!inTransposition && !isRepeat)
+            boolean inTransposition = !isDraw && probeTransposition(zobrist, maxDepth-depth, candidateMove, state);
+            
+            state.history.push(zobrist, irreversible);
+            
+            if (!inTransposition && !isDraw)
             {
 
                 lastAnalyzed = candidateMove;
+                int nodesBefore = state.nodes;
+                
                 if (abortSearch)
                 {
                     candidateMove.setValue(0);
                     candidateMove.setAbortion();
+                    state.history.pop();
                     Board.unmakeMove(position, candidateMove, 0);
                     return candidateMove;
                 }
@@ -930,34 +1273,32 @@ public class ComputerPlayer implements Player, Runnable {
                         //captureMoves = Board.getCaptures(position, !isWhite);
                         //System.out.println(captureMoves.size());
                         //System.out.println(depth);
-                        candidateMove.setValue(minmax(position, depth+1, maxDepth, !isWhite, alpha, beta, null, zobrist).getValue());
+                        candidateMove.setValue(minmax(position, depth+1, maxDepth, !isWhite, alpha, beta, null, zobrist, state).getValue());
                     }
                     else
-                        candidateMove.setValue(evaluateLeaf(position));
+                    {
+                        state.leaves++;
+                        candidateMove.setValue(evaluateLeaf(position, zobrist, alpha, beta, state));
+                    }
                 }                    
 
                 else
-                    candidateMove.setValue(minmax(position, depth+1, maxDepth, !isWhite, alpha, beta, null, zobrist).getValue());
+                    candidateMove.setValue(minmax(position, depth+1, maxDepth, !isWhite, alpha, beta, null, zobrist, state).getValue());
 
                 if (!cutoff)
-                    candidateMove.setValue(minmax(position, depth+1, maxDepth, !isWhite, alpha, beta, null, zobrist).getValue());
+                    candidateMove.setValue(minmax(position, depth+1, maxDepth, !isWhite, alpha, beta, null, zobrist, state).getValue());
+                
+                if (depth == 0) //Remember the size of each root move's subtree, used to order root moves on the next iteration
+                    candidateMove.setNodeCount(state.nodes-nodesBefore);
 
 
-                if (transpositionMap.size() < MAX_HASH_SIZE && maxDepth-depth > 2 && (maxDepth-depth)%2 == 1)
+                if (maxDepth-depth > 2 && (maxDepth-depth)%2 == 1 && !isMateScore(candidateMove.getValue())) //Mate scores depend on the distance from the root, so they are not stored
                 {
-                    if (!transpositionMap.containsKey(zobrist))
-                    {
-                        transpositionMapOrder.add(zobrist);
-                        if (transpositionMapOrder.size() > MAX_HASH_SIZE)
-                        {
-                            long removed = transpositionMapOrder.removeFirst();
-                            transpositionMap.remove(removed);
-                        }
-                    }
-                    transpositionMap.put(zobrist, new TranspositionElement(maxDepth-depth, candidateMove.getValue()));                        
+                    storeTransposition(zobrist, maxDepth-depth, candidateMove.getValue(), state);
                 }
             
             }
+            state.history.pop();
             zobrist = Board.unmakeMove(position, candidateMove, 0);
             
             
@@ -966,18 +1307,11 @@ public class ComputerPlayer implements Player, Runnable {
                 if (candidateMove.getValue() > bestValue || move == null) {
                     bestValue = candidateMove.getValue();
                     move = candidateMove;
-                    /*
-                    if (localPv.size() <= depth)
-                    {
-                        localPv.add(candidateMove);
-                    }
-                    else
-                    {
-                        localPv.set(depth, candidateMove);
-                    }*/
+                    updatePv(state, depth, candidateMove);
                     
                     alpha = Math.max(alpha, bestValue);
                     if (alpha >= beta) {
+                        countCutoff(state, candidateMove == legalMoves.getFirst());
                         break;
                     }
                 }
@@ -987,18 +1321,11 @@ public class ComputerPlayer implements Player, Runnable {
                 if (candidateMove.getValue() < bestValue || move == null) {
                     bestValue = candidateMove.getValue();
                     move = candidateMove;
-                    /*
-                    if (localPv.size() <= depth)
-                    {
-                        localPv.add(candidateMove);
-                    }
-                    else
-                        localPv.set(depth, candidateMove);
-                    */
-                    
+                    updatePv(state, depth, candidateMove);
                     
                     beta = Math.min(beta, bestValue);
                     if (alpha >= beta) {
+                        countCutoff(state, candidateMove == legalMoves.getFirst());
                         break;
                     }
 
@@ -1016,25 +1343,134 @@ public class ComputerPlayer implements Player, Runnable {
             switch (result)
             {
                 case 2:
-                    move.setValue(50000-depth);                    
-                    //transpositionMap.put(zobrist, new TranspositionElement(maxDepth-depth, move.getValue()));
+                    move.setValue(MATE_SCORE-depth);
                     break;
                 case 1:
-                    move.setValue(-50000+depth);
-                    //transpositionMap.put(zobrist, new TranspositionElement(maxDepth-depth, move.getValue()));
+                    move.setValue(-MATE_SCORE+depth);
                     break;
                 case 0:
                     move.setValue(0);
-                    //transpositionMap.put(zobrist, new TranspositionElement(maxDepth-depth, move.getValue()));
                     break;
             }
         }
         
-        //localPv.add(move);
+        return move;
+    }
+    
+    //Sets up the network's accumulators for a search from the given root, or clears them if the handcrafted evaluation is in use
+    private void prepareAccumulator(char[][] position, SearchState state)
+    {
+        Nnue currentNetwork = network;
         
-        //principalVariation[depth] = move;
+        if (currentNetwork == null)
+            state.accumulator = null;
+        else
+        {
+            if (state.accumulator == null || state.accumulator.getNetwork() != currentNetwork)
+                state.accumulator = currentNetwork.newAccumulator(MAX_PLY);
+            
+            state.accumulator.refresh(position);
+        }
+    }
+    
+    private static void countCutoff(SearchState state, boolean firstMove)
+    {
+        state.cutoffs++;
         
-        return move;
+        if (firstMove)
+            state.firstMoveCutoffs++;
+    }
+    
+    //Sets a new best move for a node and appends the variation of its child to it
+    private static void updatePv(SearchState state, int depth, Move bestMove)
+    {
+        state.pvTable[depth][depth] = bestMove;
+        System.arraycopy(state.pvTable[depth+1], depth+1, state.pvTable[depth], depth+1, state.pvLength[depth+1]-depth-1);
+        state.pvLength[depth] = state.pvLength[depth+1];
+    }
+    
+    /**
+     * Searches a position on the calling thread and returns the best move found, or null if there are no legal moves.
+     * The player's clock is ignored. Without a time, node, depth or mate limit, the search runs until stop() is called from another thread.
+     * Must not be called while the player is playing a game.
+     * @param position Position to search. It is not modified.
+     * @param isWhite Whether white has the move
+     * @param limits When to end the search
+     * @return The best move of the last completed iteration, with its score
+     */
+    public Move search(char[][] position, boolean isWhite, SearchLimits limits)
+    {
+        RepetitionHistory history = new RepetitionHistory(512+MAX_PLY);
+        history.push(Board.calculateZobrist(position), true);
+        
+        return search(position, isWhite, limits, history);
+    }
+    
+    //As above, where history holds the positions of the game up to and including the one searched, so that repetitions are scored as draws
+    public Move search(char[][] position, boolean isWhite, SearchLimits limits, RepetitionHistory history)
+    {
+        if (isThinking || isPondering)
+            throw new IllegalStateException("The player is already searching");
+        
+        char[][] searchPosition = Board.cloneBoard(position);
+        Evaluation.initialize(searchPosition); //The position may not have been reached through makeMove
+        LinkedList<Move> legalMoves = Board.getLegalMoves(searchPosition, isWhite, true);
+        
+        if (legalMoves.isEmpty())
+            return null;
+        
+        boolean playerIsWhite = this.isWhite;
+        this.isWhite = isWhite;
+        
+        //A mate in n moves scores as a mate at ply 2n-1, and is only seen once the mated side's moves are generated, one ply deeper
+        int depth = limits.getDepth() > 0 ? limits.getDepth() : MAX_PLY-1;
+        
+        if (limits.getMate() > 0)
+            depth = Math.min(depth, 2*limits.getMate());
+        
+        maxIteration = Math.min(depth-1, MAX_PLY-2);
+        nodeLimit = limits.getNodes();
+        mateLimit = limits.getMate() > 0 ? 2*limits.getMate()-1 : 0;
+        
+        abortSearch = false;
+        stopRequestTime = 0;
+        timeManager.startFixed(limits.getMoveTime() > 0 ? limits.getMoveTime() : -1);
+        
+        try {
+            return determineMove(searchPosition, legalMoves, Board.calculateZobrist(searchPosition), history);
+        } finally {
+            this.isWhite = playerIsWhite;
+            maxIteration = MAX_PLY-2;
+            nodeLimit = 0;
+            mateLimit = 0;
+        }
+    }
+    
+    //Aborts the search in progress, which returns the best move found so far within a few nodes. A new search clears the flag when it starts.
+    public void stop()
+    {
+        stopRequestTime = System.nanoTime();
+        abortSearch = true;
+    }
+    
+    //Empties the transposition table, so that a search does not depend on the searches before it
+    public void clearTranspositionTable()
+    {
+        Arrays.fill(transpositionKeys, 0);
+        Arrays.fill(transpositionData, 0);
+        transpositionEntries = 0;
+        transpositionGeneration = 0;
+    }
+    
+    public SearchMetrics getMetrics()
+    {
+        return metrics;
+    }
+    
+    //Returns the expected variation of the computer's last completed search iteration
+    public LinkedList<Move> getPrincipalVariation()
+    {
+        return new LinkedList<>(principalVariation);
     }
     
     @Override
@@ -1044,25 +1480,44 @@ public class ComputerPlayer implements Player, Runnable {
 
     @Override
     public void startThinking() {
-        isThinking = true;
-        if (!thread.isAlive())
+        boolean afterPonder;
+        
+        //Clear any earlier stop before the search is requested, so that a stop arriving before the search begins still takes effect.
+        //While a ponder search may still be running, the flag may be what cancels it, so the main thread clears it once that search has returned.
+        synchronized (this)
         {
-            //System.out.println("Starting");
-            thread.start();
+            afterPonder = isPondering;
             
-            for (int i = 0; i < processingThreads.length; i++)
+            if (!afterPonder)
             {
-                processingThreads[i].start();
+                abortSearch = false;
+                stopRequestTime = 0;
             }
+            
+            isThinking = true;
+        }
+        
+        if (!thread.isAlive())
+        {
+            //System.out.println("Starting");
+            thread.start();
         }
         else
             moves++;
+        
+        searchRequests.offer(new SearchRequest(false, null, null, afterPonder)); //Wake the main thread
     }
 
     @Override
     public void stopThinking() {
         isThinking = false;
+        stop();
+        
+        Move played = move; //If the board has just taken our move, think about the opponent's expected reply
         move = null;
+        
+        if (PONDER && played != null)
+            startPondering(played);
     }
     
     @Override
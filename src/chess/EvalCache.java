@@ -0,0 +1,68 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+import java.util.Arrays;
+
+/*
+Cache of static evaluations, indexed by the low bits of a position's zobrist hash.
+Transpositions bring the search to the same leaves many times, and each evaluation found here saves a full evaluateLeaf.
+Each entry is a single long holding the upper 48 bits of the hash and the score in the lower 16. A long is read and written in one go,
+so the table needs no locking: threads may overwrite each other's entries, but never leave half of one. The table is lossy, always replacing what occupied a slot.
+Evaluations are from white's point of view and do not depend on the side to move, which the zobrist hash does not include.
+*/
+public class EvalCache {
+    public static final int DEFAULT_SIZE = 512; //In kilobytes
+    private static final int ENTRY_SIZE = 8; //Bytes per entry
+    private static final long KEY_MASK = 0xFFFFFFFFFFFF0000L;
+
+    private final long[] entries;
+    private final int mask;
+
+    //Creates a cache of at most the given size in kilobytes. The number of entries is rounded down to a power of two.
+    public EvalCache(int sizeKb)
+    {
+        int count = Integer.highestOneBit(Math.max((int)Math.min((long)sizeKb*1024/ENTRY_SIZE, 1 << 30), 1));
+
+        entries = new long[count];
+        mask = count-1;
+    }
+
+    //Reads the entry in the slot of a position, to be checked with matches
+    public long probe(long zobrist)
+    {
+        return entries[(int)zobrist & mask];
+    }
+
+    //Returns whether an entry holds the evaluation of the given position. Its score is then read with getScore.
+    public static boolean matches(long zobrist, long entry)
+    {
+        return entry != 0 && (entry & KEY_MASK) == (zobrist & KEY_MASK);
+    }
+
+    public void store(long zobrist, int score)
+    {
+        entries[(int)zobrist & mask] = (zobrist & KEY_MASK) | (score & 0xFFFFL);
+    }
+
+    public static int getScore(long entry)
+    {
+        return (short)entry;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(entries, 0);
+    }
+
+    //Size of the cache in kilobytes
+    public int getSize()
+    {
+        return (int)((long)entries.length*ENTRY_SIZE/1024);
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+Material and piece-square terms of the evaluation, kept as running sums which Board.makeMove updates for each square a move changes and unmakeMove restores.
+The sums live in the meta row of the position, so that every copy of a board carries its own. Each is a char holding the score in centipawns from white's point of view, offset by SUM_OFFSET.
+There are two sums: one for the opening and middlegame, and one for the endgame, which also values the king's position.
+Alongside them the meta row holds the game phase, the non-pawn material left on the board, from MAX_PHASE with all pieces on the board down to 0 with only kings and pawns.
+The evaluation blends the two sums by the phase (see taper) rather than switching from one to the other at a threshold.
+*/
+public class Evaluation {
+    public static final int OPENING_SUM = 6; //Index of the opening sum in the meta row
+    public static final int ENDGAME_SUM = 7; //And of the endgame sum
+    public static final int PHASE = 8; //And of the game phase
+    public static final int MAX_PHASE = 24; //Phase of the starting position. Promotions can take the count above this, so it is capped when read.
+    private static final int SUM_OFFSET = 0x8000; //Added to a sum before it is stored, so that negative sums fit in a char
+    
+    /*
+    Piece-square tables, in centipawns, from white's side of the board. Black's pieces use the vertically mirrored square, [7-y][x].
+    Piece values and the scale of each table are evaluation parameters (see EvaluationParameters).
+    */
+    
+    //Pawns are more valuable if centralized and the further they have advanced
+    private static final int[][] PAWN_POSITION_VALUES = new int[][]
+    {
+        {  0,   0,   0,   0,   0,   0,   0,   0},
+        { -6,   0,   0,   0,   0,   0,   0,  -6},
+        {-12,  -6,   6,   6,   6,   6,  -6, -12},
+        {-18, -12,   0,   6,   6,   0, -12, -18},
+        {-24, -18,  -6,   0,   0,  -6, -18, -24},
+        {-29, -24, -12, -12, -12, -12, -24, -29},
+        {-35, -29, -29, -29, -29, -29, -29, -35},
+        {-41, -41, -41, -41, -41, -41, -41, -41},
+    };
+    
+    //Knights are more valuable in the center, and on particular ranks
+    private static final int[][] KNIGHT_POSITION_VALUES = new int[][]
+    {
+        {-15, -15, -15, -15, -15, -15, -15, -15},
+        {-15,  -7,  -7,  -7,  -7,  -7,  -7, -15},
+        {-15,  -7,   7,   7,   7,   7,  -7, -15},
+        {-15,  -7,   7,  15,  15,   7,  -7, -15},
+        { 15,  22,  37,  44,  44,  37,  22,  15},
+        { 44,  51,  66,  66,  66,  66,  51,  44},
+        { 44,  51,  51,  51,  51,  51,  51,  44},
+        {-15, -15, -15, -15, -15, -15, -15, -15},
+    };
+    
+    //Bishops have more specific squares where they are more valuable
+    private static final int[][] BISHOP_POSITION_VALUES = new int[][]
+    {
+        {-12, -12, -16, -12, -12, -16, -12, -12},
+        { -7,  31, -12,  -2,  -2, -12,  31,  -7},
+        { 21,  21, -12,   0,   0, -12,  21,  21},
+        { -9,  -2,  19,  -7,  -7,  19,  -2,  -9},
+        { -9,  -2,  19,  -7,  -7,  19,  -2,  -9},
+        { 21,  21, -12,   0,   0, -12,  21,  21},
+        { -7,  31, -12,  -2,  -2, -12,  31,  -7},
+        {-12, -12, -16, -12, -12, -16, -12, -12},
+    };
+    
+    //In the endgame, the king should move towards the center of the board
+    private static final int[][] KING_ENDGAME_POSITION_VALUES = new int[][]
+    {
+        {  0,   0,   0,   0,   0,   0,   0,   0},
+        {  0,  24,  24,  24,  24,  24,  24,   0},
+        {  0,  24,  71,  71,  71,  71,  24,   0},
+        {  0,  24,  71,  94,  94,  71,  24,   0},
+        {  0,  24,  71,  94,  94,  71,  24,   0},
+        {  0,  24,  71,  71,  71,  71,  24,   0},
+        {  0,  24,  24,  24,  24,  24,  24,   0},
+        {  0,   0,   0,   0,   0,   0,   0,   0},
+    };
+    
+    //Value of each piece on each square, positive for white and negative for black, indexed by the piece's character and then by y*8+x. Empty squares are worth nothing.
+    private static final int[][] OPENING_VALUES = new int[128][64];
+    private static final int[][] ENDGAME_VALUES = new int[128][64];
+    
+    //Weight of each piece in the game phase, indexed by the piece's character
+    private static final int[] PHASE_VALUES = new int[128];
+    
+    private static int[] parameters; //Values of the evaluation parameters in use, indexed by the constants of EvaluationParameters
+    private static EvaluationParameters currentParameters;
+    
+    static
+    {
+        setParameters(loadParameters());
+        
+        PHASE_VALUES['n'] = PHASE_VALUES['N'] = 1;
+        PHASE_VALUES['b'] = PHASE_VALUES['B'] = 1;
+        PHASE_VALUES['r'] = PHASE_VALUES['R'] = 2;
+        PHASE_VALUES['q'] = PHASE_VALUES['Q'] = 4;
+    }
+    
+    private Evaluation() {} //Not instantiated
+    
+    //Reads the parameters named by the chess.evalParams property, or returns the defaults
+    private static EvaluationParameters loadParameters()
+    {
+        String path = System.getProperty("chess.evalParams");
+        
+        if (path != null && !path.isEmpty())
+        {
+            try {
+                return EvaluationParameters.load(Paths.get(path));
+            } catch (IOException ex) {
+                Logger.getLogger(Evaluation.class.getName()).log(Level.WARNING, "Could not load the evaluation parameters " + path + ", using the defaults", ex);
+            }
+        }
+        
+        return new EvaluationParameters();
+    }
+    
+    /*
+    Sets the parameters used by the evaluation. Not to be called while a search is running.
+    The sums of positions calculated before keep the old values until initialize is called on them, and the players' pawn and evaluation caches keep scores calculated with them.
+    */
+    public static void setParameters(EvaluationParameters newParameters)
+    {
+        int[] values = newParameters.toArray();
+        
+        setValues('p', values[EvaluationParameters.PAWN_VALUE], PAWN_POSITION_VALUES, PAWN_POSITION_VALUES, values[EvaluationParameters.PAWN_TABLE_SCALE]);
+        setValues('n', values[EvaluationParameters.KNIGHT_VALUE], KNIGHT_POSITION_VALUES, KNIGHT_POSITION_VALUES, values[EvaluationParameters.KNIGHT_TABLE_SCALE]);
+        setValues('b', values[EvaluationParameters.BISHOP_VALUE], BISHOP_POSITION_VALUES, BISHOP_POSITION_VALUES, values[EvaluationParameters.BISHOP_TABLE_SCALE]);
+        setValues('r', values[EvaluationParameters.ROOK_VALUE], null, null, 0);
+        setValues('q', values[EvaluationParameters.QUEEN_VALUE], null, null, 0);
+        setValues('k', 0, null, KING_ENDGAME_POSITION_VALUES, values[EvaluationParameters.KING_ENDGAME_TABLE_SCALE]);
+        
+        parameters = values;
+        currentParameters = new EvaluationParameters(newParameters);
+    }
+    
+    public static EvaluationParameters getParameters()
+    {
+        return new EvaluationParameters(currentParameters);
+    }
+    
+    //Values of the parameters in use, for the parts of the evaluation outside this class. Must not be modified.
+    static int[] getParameterValues()
+    {
+        return parameters;
+    }
+    
+    //Fills in the values of a white piece and its black counterpart. A null table adds nothing for the square. The table's values are scaled by a percentage.
+    private static void setValues(char piece, int value, int[][] openingTable, int[][] endgameTable, int scale)
+    {
+        char blackPiece = Character.toUpperCase(piece);
+        
+        for (int y = 0; y < 8; y++)
+        {
+            for (int x = 0; x < 8; x++)
+            {
+                OPENING_VALUES[piece][y*8+x] = value + (openingTable == null ? 0 : openingTable[y][x]*scale/100);
+                OPENING_VALUES[blackPiece][y*8+x] = -value - (openingTable == null ? 0 : openingTable[7-y][x]*scale/100);
+                ENDGAME_VALUES[piece][y*8+x] = value + (endgameTable == null ? 0 : endgameTable[y][x]*scale/100);
+                ENDGAME_VALUES[blackPiece][y*8+x] = -value - (endgameTable == null ? 0 : endgameTable[7-y][x]*scale/100);
+            }
+        }
+    }
+    
+    //Calculates the sums and phase of a position from scratch and stores them in its meta row. Needed only for positions which were not reached through makeMove.
+    public static void initialize(char[][] position)
+    {
+        int opening = 0;
+        int endgame = 0;
+        int phase = 0;
+        
+        for (int y = 0; y < 8; y++)
+        {
+            for (int x = 0; x < 8; x++)
+            {
+                opening += OPENING_VALUES[position[y][x]][y*8+x];
+                endgame += ENDGAME_VALUES[position[y][x]][y*8+x];
+                phase += PHASE_VALUES[position[y][x]];
+            }
+        }
+        
+        position[8][OPENING_SUM] = (char)(opening+SUM_OFFSET);
+        position[8][ENDGAME_SUM] = (char)(endgame+SUM_OFFSET);
+        position[8][PHASE] = (char)phase;
+    }
+    
+    //Updates the sums and phase for a piece placed on a square
+    public static void addPiece(char[][] position, char piece, int x, int y)
+    {
+        position[8][OPENING_SUM] += OPENING_VALUES[piece][y*8+x];
+        position[8][ENDGAME_SUM] += ENDGAME_VALUES[piece][y*8+x];
+        position[8][PHASE] += PHASE_VALUES[piece];
+    }
+    
+    //Updates the sums and phase for a piece taken off a square
+    public static void removePiece(char[][] position, char piece, int x, int y)
+    {
+        position[8][OPENING_SUM] -= OPENING_VALUES[piece][y*8+x];
+        position[8][ENDGAME_SUM] -= ENDGAME_VALUES[piece][y*8+x];
+        position[8][PHASE] -= PHASE_VALUES[piece];
+    }
+    
+    //Values a piece on a square (y*8+x) adds to the sums, for evaluators which keep them their own way
+    static int getOpeningValue(char piece, int square)
+    {
+        return OPENING_VALUES[piece][square];
+    }
+    
+    static int getEndgameValue(char piece, int square)
+    {
+        return ENDGAME_VALUES[piece][square];
+    }
+    
+    static int getPhaseValue(char piece)
+    {
+        return PHASE_VALUES[piece];
+    }
+    
+    public static int getOpeningSum(char[][] position)
+    {
+        return position[8][OPENING_SUM]-SUM_OFFSET;
+    }
+    
+    public static int getEndgameSum(char[][] position)
+    {
+        return position[8][ENDGAME_SUM]-SUM_OFFSET;
+    }
+    
+    public static int getPhase(char[][] position)
+    {
+        return Math.min(position[8][PHASE], MAX_PHASE);
+    }
+    
+    //Blends an opening and an endgame score by the game phase: all opening at MAX_PHASE, all endgame at 0
+    public static int taper(int opening, int endgame, int phase)
+    {
+        return (opening*phase + endgame*(MAX_PHASE-phase))/MAX_PHASE;
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+/*
+A block of positions scored together, for evaluating large sets of positions such as tuning data, where calling the evaluation one board at a time is slow.
+Positions are stored as a structure of arrays: a column for each square, holding a byte code for the piece on it in every position of the block. A position takes 64 bytes.
+Scoring walks the columns square by square, adding each position's value for the square from a table indexed by the piece code. The inner loop runs over consecutive positions with no dependency
+between them, so HotSpot unrolls it and keeps several positions' sums in flight, and reads each column as one stream, instead of jumping from board to board.
+The opening value, endgame value and phase of each entry are packed into one long, so each square of each position costs a single load and addition.
+Where the Vector API is available and the hardware has 512-bit vectors, the sums are found by VectorKernels.Batch instead, 64 positions at a time, about twice as fast. The loop above is the fallback.
+Columns are allocated in whole chunks of the vector kernel, so that it never reads past their ends.
+
+The scores are the material and piece-square values, blended by the game phase: the part of the evaluation kept up to date by makeMove, and what lazy evaluation scores a leaf by.
+*/
+public class EvaluationBatch {
+    public static final int DEFAULT_CAPACITY = 4096; //Positions in a block
+    private static final String PIECES = " pnbrqkPNBRQK"; //Piece of each code
+    private static final int CODES = 16; //Entries of each square's row in the value table, a power of two above the number of codes
+    private static final int FIELD_BITS = 21; //Bits of each sum in a packed value, enough for 64 squares of any piece's value
+
+    private static final boolean VECTOR_SUPPORTED = VectorKernels.AVAILABLE && VectorKernels.Batch.isSupported();
+
+    private final byte[][] squares = new byte[64][]; //For each square, the code of the piece on it in each position
+    private final long[] sums; //Packed sums of each position, while scoring with the scalar loop
+    private final int[] openings, endgames, phases; //Sums of each position, while scoring with the vector kernel. Null if it is not supported.
+    private final int capacity;
+    private int size;
+    private boolean vectorized = VECTOR_SUPPORTED;
+
+    public EvaluationBatch(int capacity)
+    {
+        int length = (capacity+VectorKernels.Batch.CHUNK-1)/VectorKernels.Batch.CHUNK*VectorKernels.Batch.CHUNK;
+
+        for (int square = 0; square < 64; square++)
+            squares[square] = new byte[length];
+
+        this.capacity = capacity;
+        sums = new long[capacity];
+        openings = VECTOR_SUPPORTED ? new int[length] : null;
+        endgames = VECTOR_SUPPORTED ? new int[length] : null;
+        phases = VECTOR_SUPPORTED ? new int[length] : null;
+    }
+
+    //Returns whether the vector kernel can run: the JVM was started with --add-modules jdk.incubator.vector, on hardware with 512-bit vectors
+    public static boolean isVectorSupported()
+    {
+        return VECTOR_SUPPORTED;
+    }
+
+    public boolean isVectorized()
+    {
+        return vectorized;
+    }
+
+    //Chooses between the vector kernel, used by default where it is supported, and the scalar loop
+    public void setVectorized(boolean vectorized)
+    {
+        this.vectorized = vectorized && VECTOR_SUPPORTED;
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public boolean isFull()
+    {
+        return size == capacity;
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    //Adds a position to the block, returning its index
+    public int add(char[][] position)
+    {
+        if (isFull())
+            throw new IllegalStateException("Batch is full");
+
+        for (int square = 0; square < 64; square++)
+            squares[square][size] = (byte)PIECES.indexOf(position[square >> 3][square & 7]);
+
+        return size++;
+    }
+
+    //Packs the three values of a piece on a square into one long, so that a single addition sums them all. A field may go negative, borrowing from the one above, which unpacking undoes.
+    private static long pack(int opening, int endgame, int phase)
+    {
+        return opening + ((long)endgame << FIELD_BITS) + ((long)phase << 2*FIELD_BITS);
+    }
+
+    /*
+    Scores every position of the block, in centipawns from white's point of view, into the start of the given array.
+    The values are those of the evaluation parameters in use, read when the method is called.
+    */
+    public void evaluate(int[] scores)
+    {
+        if (vectorized)
+        {
+            evaluateVectorized(scores);
+            return;
+        }
+
+        long[] table = new long[64*CODES];
+
+        for (int square = 0; square < 64; square++)
+        {
+            for (int code = 1; code < PIECES.length(); code++)
+            {
+                char piece = PIECES.charAt(code);
+                table[square*CODES + code] = pack(Evaluation.getOpeningValue(piece, square), Evaluation.getEndgameValue(piece, square), Evaluation.getPhaseValue(piece));
+            }
+        }
+
+        int count = size;
+
+        for (int i = 0; i < count; i++)
+            sums[i] = 0;
+
+        for (int square = 0; square < 64; square++)
+        {
+            byte[] codes = squares[square];
+            int row = square*CODES;
+
+            for (int i = 0; i < count; i++)
+                sums[i] += table[row + codes[i]];
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            long sum = sums[i];
+            int opening = (int)(sum << (64-FIELD_BITS) >> (64-FIELD_BITS));
+            sum = (sum-opening) >> FIELD_BITS;
+            int endgame = (int)(sum << (64-FIELD_BITS) >> (64-FIELD_BITS));
+            int phase = (int)((sum-endgame) >> FIELD_BITS);
+
+            scores[i] = Evaluation.taper(opening, endgame, Math.min(phase, Evaluation.MAX_PHASE));
+        }
+    }
+
+    //Scores the block as evaluate does, with the vector kernel, which takes the three values from separate tables of ints
+    private void evaluateVectorized(int[] scores)
+    {
+        int[] openingTable = new int[64*CODES], endgameTable = new int[64*CODES], phaseTable = new int[64*CODES];
+
+        for (int square = 0; square < 64; square++)
+        {
+            for (int code = 1; code < PIECES.length(); code++)
+            {
+                char piece = PIECES.charAt(code);
+                openingTable[square*CODES + code] = Evaluation.getOpeningValue(piece, square);
+                endgameTable[square*CODES + code] = Evaluation.getEndgameValue(piece, square);
+                phaseTable[square*CODES + code] = Evaluation.getPhaseValue(piece);
+            }
+        }
+
+        int count = size;
+
+        VectorKernels.Batch.sums(squares, count, openingTable, endgameTable, phaseTable, openings, endgames, phases);
+
+        for (int i = 0; i < count; i++)
+            scores[i] = Evaluation.taper(openings[i], endgames[i], Math.min(phases[i], Evaluation.MAX_PHASE));
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/*
+The weights of the handcrafted evaluation, as a vector of named integers, so that they can be tuned and loaded from a file instead of being fixed in the code.
+Values are in centipawns, except those named _SCALE, which are percentages applied to a table of values in the code, such as the piece-square tables.
+The file format is that of java.util.Properties, one "name = value" line per parameter. Parameters missing from a file keep their default values.
+Evaluation holds the parameters in use. They are read from the file named by the chess.evalParams property when the program starts.
+*/
+public class EvaluationParameters {
+    //Material, the same in the opening and the endgame
+    public static final int PAWN_VALUE = 0;
+    public static final int KNIGHT_VALUE = 1;
+    public static final int BISHOP_VALUE = 2;
+    public static final int ROOK_VALUE = 3;
+    public static final int QUEEN_VALUE = 4;
+
+    //Piece-square tables
+    public static final int PAWN_TABLE_SCALE = 5;
+    public static final int KNIGHT_TABLE_SCALE = 6;
+    public static final int BISHOP_TABLE_SCALE = 7;
+    public static final int KING_ENDGAME_TABLE_SCALE = 8;
+
+    //Mobility, for each square a piece attacks which its own side does not occupy. Knights count from their third square.
+    public static final int KNIGHT_MOBILITY = 9;
+    public static final int BISHOP_MOBILITY = 10;
+    public static final int ROOK_MOBILITY_OPENING = 11;
+    public static final int ROOK_MOBILITY_ENDGAME = 12;
+    public static final int QUEEN_MOBILITY = 13;
+
+    //King safety, counted in the opening only
+    public static final int KING_ATTACK_SCALE = 14;
+    public static final int KINGSIDE_CASTLED = 15;
+    public static final int KINGSIDE_SHELTER = 16; //Lost for each shelter pawn missing
+    public static final int QUEENSIDE_CASTLED = 17;
+    public static final int QUEENSIDE_SHELTER = 18;
+    public static final int QUEENSIDE_CASTLING_RIGHT = 19;
+    public static final int KINGSIDE_CASTLING_RIGHT = 20;
+
+    //Pawn structure
+    public static final int DOUBLED_OPENING = 21;
+    public static final int DOUBLED_ENDGAME = 22;
+    public static final int ISOLATED_OPENING = 23;
+    public static final int ISOLATED_ENDGAME = 24;
+    public static final int BACKWARD_OPENING = 25;
+    public static final int BACKWARD_ENDGAME = 26;
+    public static final int PASSED_OPENING_SCALE = 27;
+    public static final int PASSED_ENDGAME_SCALE = 28;
+
+    private static final String[] NAMES = {
+        "PAWN_VALUE", "KNIGHT_VALUE", "BISHOP_VALUE", "ROOK_VALUE", "QUEEN_VALUE",
+        "PAWN_TABLE_SCALE", "KNIGHT_TABLE_SCALE", "BISHOP_TABLE_SCALE", "KING_ENDGAME_TABLE_SCALE",
+        "KNIGHT_MOBILITY", "BISHOP_MOBILITY", "ROOK_MOBILITY_OPENING", "ROOK_MOBILITY_ENDGAME", "QUEEN_MOBILITY",
+        "KING_ATTACK_SCALE", "KINGSIDE_CASTLED", "KINGSIDE_SHELTER", "QUEENSIDE_CASTLED", "QUEENSIDE_SHELTER", "QUEENSIDE_CASTLING_RIGHT", "KINGSIDE_CASTLING_RIGHT",
+        "DOUBLED_OPENING", "DOUBLED_ENDGAME", "ISOLATED_OPENING", "ISOLATED_ENDGAME", "BACKWARD_OPENING", "BACKWARD_ENDGAME", "PASSED_OPENING_SCALE", "PASSED_ENDGAME_SCALE",
+    };
+
+    private static final int[] DEFAULTS = {
+        100, 206, 235, 353, 559,
+        100, 100, 100, 100,
+        12, 6, 3, 9, 6,
+        100, 118, 12, 88, 9, 24, 35,
+        -10, -20, -10, -15, -8, -10, 100, 100,
+    };
+
+    private final int[] values;
+
+    //Creates a vector of the default values
+    public EvaluationParameters()
+    {
+        values = DEFAULTS.clone();
+    }
+
+    public EvaluationParameters(EvaluationParameters other)
+    {
+        values = other.values.clone();
+    }
+
+    public static int count()
+    {
+        return NAMES.length;
+    }
+
+    public static String getName(int index)
+    {
+        return NAMES[index];
+    }
+
+    public int get(int index)
+    {
+        return values[index];
+    }
+
+    public void set(int index, int value)
+    {
+        values[index] = value;
+    }
+
+    //Copy of the values, indexed by the constants above
+    int[] toArray()
+    {
+        return values.clone();
+    }
+
+    public static EvaluationParameters load(Path path) throws IOException
+    {
+        Properties properties = new Properties();
+        EvaluationParameters parameters = new EvaluationParameters();
+
+        try (Reader in = Files.newBufferedReader(path))
+        {
+            properties.load(in);
+        }
+
+        for (String name : properties.stringPropertyNames())
+        {
+            int index = indexOf(name);
+
+            if (index < 0)
+                throw new IOException("Unknown parameter " + name + " in " + path);
+
+            try {
+                parameters.values[index] = Integer.parseInt(properties.getProperty(name).trim());
+            } catch (NumberFormatException ex) {
+                throw new IOException("Bad value for " + name + " in " + path, ex);
+            }
+        }
+
+        return parameters;
+    }
+
+    public void save(Path path) throws IOException
+    {
+        try (BufferedWriter out = Files.newBufferedWriter(path))
+        {
+            out.write("#Evaluation parameters");
+            out.newLine();
+
+            for (int i = 0; i < NAMES.length; i++)
+            {
+                out.write(NAMES[i] + " = " + values[i]);
+                out.newLine();
+            }
+        }
+    }
+
+    private static int indexOf(String name)
+    {
+        for (int i = 0; i < NAMES.length; i++)
+        {
+            if (NAMES[i].equals(name))
+                return i;
+        }
+
+        return -1;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < NAMES.length; i++)
+            builder.append(i == 0 ? "" : ", ").append(NAMES[i]).append(' ').append(values[i]);
+
+        return builder.toString();
+    }
+}
@@ -142,6 +142,9 @@ class HumanPlayer implements Player, MouseListener{
         premove = null;
     }
     
+    @Override
+    public void opponentMoved(Move move) {} //Intentionally empty
+    
     public void clearPremoves()
     {
         premove = null;
@@ -0,0 +1,461 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+Proves or disproves forced mates with depth-first proof-number search (df-pn), which is much faster than alpha-beta at proving mates since it needs no evaluation and no fixed depth.
+Every position has a proof number, the least number of positions which must still be shown to be mates to prove that the attacker mates, and a disproof number, the least number which must be shown to be escapes.
+Where the attacker is to move, the proof number is the smallest of the children's and the disproof number is their sum. Where the defender is to move, it is the other way round.
+The search always descends into the most promising child, and only returns once the position's numbers reach thresholds set by its parent, so it keeps the numbers in the proof table rather than holding the tree.
+
+The proof table is a fixed-size, two-way set associative hash table shared by all threads. Each entry is two longs, the key xored with the data, as in the computer's transposition table,
+so that an entry torn by two threads writing at once fails verification. When both slots of a set are taken by other positions, the one holding less work is replaced.
+Additional threads each take a share of the root moves, checks first, and try to prove them one at a time, while the calling thread searches from the root as usual.
+They share what they learn through the table, and a helper which proves its move proves the root. Each starts its line from the root, so it finds the same repetitions the calling thread would.
+
+Draws are not proven. A position repeating one earlier in the line being searched counts as an escape, the fifty-move rule is ignored and lines longer than MAX_PLY plies count as escapes.
+A disproof therefore means there is no forced mate within those rules, not that the position is drawn.
+*/
+public class MateSolver {
+    public enum Status {PROVEN, DISPROVEN, UNKNOWN}
+
+    //Outcome of a call to solve
+    public static class Result
+    {
+        public final Status status;
+        public final List<Move> line; //If proven, a mating line read from the proof table. It is a forced mate, but not necessarily the shortest, and may be cut short if the table lost an entry.
+        public final long nodes; //Positions expanded by all threads
+        public final long time; //Milliseconds
+
+        private Result(Status status, List<Move> line, long nodes, long time)
+        {
+            this.status = status;
+            this.line = line;
+            this.nodes = nodes;
+            this.time = time;
+        }
+
+        //First move of the mate, or null unless proven
+        public Move getMove()
+        {
+            return line.isEmpty() ? null : line.get(0);
+        }
+
+        @Override
+        public String toString()
+        {
+            return status + " in " + nodes + " nodes, " + time + " ms" + (line.isEmpty() ? "" : ": " + line);
+        }
+    }
+
+    private static final int INFINITE = (1 << 30)-1; //Proof or disproof number of a position which is resolved. Sums of unresolved numbers are clamped just below it, so two never overflow an int.
+    private static final long PROVEN = (long)INFINITE << 32; //Packed numbers of a mate: proof number 0, disproof number infinite
+    private static final long DISPROVEN = INFINITE; //And of an escape
+
+    private static final int QUIET_MOVE_PROOF = 2; //Initial proof number of an attacker move which does not give check. Checks are tried first.
+    private static final int MAX_PLY = 256; //Longest line searched
+    private static final int MAX_LINE = 64; //Longest mating line read back from the table
+    private static final int NODE_BATCH = 1024; //Each thread adds its nodes to the total, and checks the budget, once every NODE_BATCH nodes
+
+    private static final long DEFENDER_KEY = 0x2545F4914F6CDD1DL; //Xored into the hash of positions where the defender is to move, since the zobrist hash does not include the side to move
+
+    public static final int DEFAULT_TABLE_BITS = 20; //2^20 entries (16 MB)
+
+    private final int tableMask;
+    private final long[] tableKeys;
+    private final long[] tableData; //Proof number in the low 32 bits, disproof number in the high 32 bits
+
+    private final int threads;
+    private final ExecutorService pool; //Runs the helper threads. The calling thread searches as well.
+
+    private boolean attackerIsWhite;
+    private long nodeBudget;
+    private final AtomicLong nodes = new AtomicLong();
+    private volatile boolean stop;
+
+    //Search state of one thread
+    private static class Worker
+    {
+        private final char[][] position;
+        private final long[] path = new long[MAX_PLY]; //Keys of the positions on the line being searched, to detect repetitions
+        private long nodes; //Nodes not yet added to the total
+
+        private Worker(char[][] position)
+        {
+            this.position = position;
+        }
+    }
+
+    public MateSolver()
+    {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_TABLE_BITS);
+    }
+
+    /**
+     * @param threads Number of threads to search with, including the calling thread
+     * @param tableBits The proof table holds 2^tableBits entries of 16 bytes
+     */
+    public MateSolver(int threads, int tableBits)
+    {
+        this.threads = Math.max(threads, 1);
+        tableMask = (1 << tableBits)-1;
+        tableKeys = new long[1 << tableBits];
+        tableData = new long[1 << tableBits];
+
+        pool = this.threads > 1 ? Executors.newFixedThreadPool(this.threads-1, runnable -> {
+            Thread helper = new Thread(runnable, "Mate solver");
+            helper.setDaemon(true);
+            return helper;
+        }) : null;
+    }
+
+    /**
+     * Tries to prove that the attacker can force mate. The proof table is cleared first, so each call is independent of the last.
+     * @param position Position to solve. It is not modified.
+     * @param isWhite Whether white has the move. The side to move is the attacker.
+     * @param budget Maximum number of nodes to expand, over all threads. The search may overshoot it by a few batches.
+     */
+    public Result solve(char[][] position, boolean isWhite, long budget)
+    {
+        long startTime = System.nanoTime();
+
+        Arrays.fill(tableKeys, 0);
+        Arrays.fill(tableData, 0);
+        attackerIsWhite = isWhite;
+        nodeBudget = budget;
+        nodes.set(0);
+        stop = false;
+
+        long rootKey = Board.calculateZobrist(position);
+        List<Future<?>> helpers = new ArrayList<>(threads-1);
+
+        if (threads > 1)
+        {
+            //Checks first, as the root search tries them. The calling thread starts with the first move, so helper i takes moves i, i+threads, and so on.
+            LinkedList<Move> rootMoves = Board.getLegalMoves(Board.cloneBoard(position), isWhite, false);
+            LinkedList<Move> checks = new LinkedList<>();
+            LinkedList<Move> quietMoves = new LinkedList<>();
+            char[][] scratch = Board.cloneBoard(position);
+
+            for (Move move : rootMoves)
+            {
+                Board.makeMove(scratch, move, false, 0);
+                (Board.isInCheck(scratch) ? checks : quietMoves).add(move);
+                Board.unmakeMove(scratch, move, 0);
+            }
+
+            checks.addAll(quietMoves);
+
+            for (int i = 0; i < threads-1; i++)
+            {
+                LinkedList<Move> share = new LinkedList<>();
+
+                for (int j = i+1; j < checks.size(); j += threads)
+                    share.add(checks.get(j));
+
+                Worker helper = new Worker(Board.cloneBoard(position));
+                helpers.add(pool.submit(() -> searchRootMoves(helper, rootKey, share)));
+            }
+        }
+
+        Worker main = new Worker(Board.cloneBoard(position));
+        long result = search(main, rootKey, true, 0, INFINITE, INFINITE);
+        nodes.addAndGet(main.nodes);
+        stop = true;
+
+        for (Future<?> helper : helpers)
+        {
+            try {
+                helper.get();
+            } catch (InterruptedException | ExecutionException ex) {
+                Logger.getLogger(MateSolver.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+
+        Status status = proofNumber(result) != 0 && disproofNumber(result) != 0 ? Status.UNKNOWN : proofNumber(result) == 0 ? Status.PROVEN : Status.DISPROVEN;
+        List<Move> line = status == Status.PROVEN ? readLine(Board.cloneBoard(position), rootKey) : Collections.emptyList();
+
+        return new Result(status, line, nodes.get(), (System.nanoTime()-startTime)/1000000);
+    }
+
+    //Stops a solve in progress, which returns within a few nodes
+    public void stop()
+    {
+        stop = true;
+    }
+
+    public void shutdown()
+    {
+        if (pool != null)
+            pool.shutdownNow();
+    }
+
+    //Tries to prove each of a helper's root moves in turn, until one is proven, the budget runs out or the root is resolved
+    private void searchRootMoves(Worker worker, long rootKey, List<Move> rootMoves)
+    {
+        worker.path[0] = rootKey;
+
+        for (Move move : rootMoves)
+        {
+            if (stop)
+                break;
+
+            Board.makeMove(worker.position, move, false, 0);
+            long result = search(worker, Board.calculateZobrist(worker.position) ^ DEFENDER_KEY, false, 1, INFINITE, INFINITE);
+            Board.unmakeMove(worker.position, move, 0);
+
+            if (proofNumber(result) == 0) //The root is proven. The calling thread finds the proof in the table when it next looks at the root's children.
+                stop = true;
+        }
+
+        nodes.addAndGet(worker.nodes);
+    }
+
+    /**
+     * Expands a position until its proof or disproof number reaches its threshold, or it is resolved.
+     * @param key Hash of the position, including the side to move
+     * @param attacking Whether the attacker is to move
+     * @param ply Distance from the root
+     * @return The proof number in the low 32 bits and the disproof number in the high 32 bits
+     */
+    private long search(Worker worker, long key, boolean attacking, int ply, int proofThreshold, int disproofThreshold)
+    {
+        countNode(worker);
+
+        char[][] position = worker.position;
+        LinkedList<Move> legalMoves = Board.getLegalMoves(position, attacking == attackerIsWhite, false);
+
+        if (legalMoves.isEmpty()) //Checkmate proves the mate only if the defender is mated. Stalemate is an escape.
+        {
+            long result = !attacking && Board.isInCheck(position) ? PROVEN : DISPROVEN;
+            store(key, result);
+            return result;
+        }
+
+        //Find the children's keys once. Checks get a lower initial proof number, since they leave the defender fewer replies.
+        //Children which repeat a position on the line, or lie beyond MAX_PLY, are escapes. They are never stored, since that depends on the line.
+        int count = legalMoves.size();
+        Move[] children = legalMoves.toArray(new Move[count]);
+        long[] childKeys = new long[count];
+        int[] initialNumbers = new int[count];
+        boolean[] escapes = new boolean[count];
+
+        worker.path[ply] = key;
+
+        for (int i = 0; i < count; i++)
+        {
+            Board.makeMove(position, children[i], false, 0);
+            childKeys[i] = Board.calculateZobrist(position) ^ (attacking ? DEFENDER_KEY : 0);
+            initialNumbers[i] = !attacking || Board.isInCheck(position) ? 1 : QUIET_MOVE_PROOF;
+            Board.unmakeMove(position, children[i], 0);
+
+            escapes[i] = ply+1 >= MAX_PLY;
+
+            for (int j = ply-1; j >= 0 && !escapes[i]; j--)
+                escapes[i] = worker.path[j] == childKeys[i];
+        }
+
+        while (true)
+        {
+            int proof = attacking ? INFINITE : 0;
+            int disproof = attacking ? 0 : INFINITE;
+            int best = -1;
+            int bestValue = INFINITE+1; //Proof number of the best child at an attacker node, disproof number at a defender node
+            int bestOther = 0; //Its other number
+            int secondValue = INFINITE;
+
+            for (int i = 0; i < count; i++)
+            {
+                long child = escapes[i] ? DISPROVEN : probe(childKeys[i]);
+
+                if (child == -1)
+                    child = attacking ? initialNumbers[i] | 1L << 32 : 1 | (long)initialNumbers[i] << 32;
+
+                int childProof = proofNumber(child);
+                int childDisproof = disproofNumber(child);
+                int value = attacking ? childProof : childDisproof;
+
+                if (attacking)
+                    disproof = sum(disproof, childDisproof);
+                else
+                    proof = sum(proof, childProof);
+
+                if (value < bestValue)
+                {
+                    secondValue = bestValue;
+                    bestValue = value;
+                    bestOther = attacking ? childDisproof : childProof;
+                    best = i;
+                }
+                else if (value < secondValue)
+                    secondValue = value;
+            }
+
+            if (attacking)
+                proof = bestValue;
+            else
+                disproof = bestValue;
+
+            if (proof == 0 || disproof == 0 || proof >= proofThreshold || disproof >= disproofThreshold || stop)
+            {
+                long result = proof | (long)disproof << 32;
+                store(key, result);
+                return result;
+            }
+
+            //The child is searched until it is no longer the best, or its parent's threshold would be reached
+            int childProofThreshold, childDisproofThreshold;
+
+            if (attacking)
+            {
+                childProofThreshold = Math.min(proofThreshold, Math.min(secondValue, INFINITE-1)+1);
+                childDisproofThreshold = Math.min(disproofThreshold-disproof+bestOther, INFINITE);
+            }
+            else
+            {
+                childDisproofThreshold = Math.min(disproofThreshold, Math.min(secondValue, INFINITE-1)+1);
+                childProofThreshold = Math.min(proofThreshold-proof+bestOther, INFINITE);
+            }
+
+            Board.makeMove(position, children[best], false, 0);
+            search(worker, childKeys[best], !attacking, ply+1, childProofThreshold, childDisproofThreshold);
+            Board.unmakeMove(position, children[best], 0);
+        }
+    }
+
+    private void countNode(Worker worker)
+    {
+        if (++worker.nodes == NODE_BATCH)
+        {
+            if (nodes.addAndGet(worker.nodes) >= nodeBudget)
+                stop = true;
+
+            worker.nodes = 0;
+        }
+    }
+
+    //Follows proven children from the root, taking a mating move where the attacker is to move and any reply where the defender is.
+    //The table does not say how far each mate is, so positions already on the line are skipped to keep the line from going round in circles.
+    private List<Move> readLine(char[][] position, long rootKey)
+    {
+        LinkedList<Move> line = new LinkedList<>();
+        HashSet<Long> visited = new HashSet<>();
+        boolean attacking = true;
+        
+        visited.add(rootKey);
+
+        while (line.size() < MAX_LINE)
+        {
+            Move next = null;
+            long nextKey = 0;
+
+            for (Move move : Board.getLegalMoves(position, attacking == attackerIsWhite, false))
+            {
+                Board.makeMove(position, move, false, 0);
+                long childKey = Board.calculateZobrist(position) ^ (attacking ? DEFENDER_KEY : 0);
+                Board.unmakeMove(position, move, 0);
+
+                long child = probe(childKey);
+
+                if (child != -1 && proofNumber(child) == 0 && !visited.contains(childKey))
+                {
+                    next = move;
+                    nextKey = childKey;
+                    break;
+                }
+            }
+
+            if (next == null) //Mate, or the table no longer holds the rest of the line
+                break;
+
+            Board.makeMove(position, next, false, 0);
+            line.add(next);
+            visited.add(nextKey);
+            attacking = !attacking;
+        }
+
+        return line;
+    }
+
+    //Returns the packed numbers stored for a position, or -1 if it is not in the table
+    private long probe(long key)
+    {
+        int index = (int)key & tableMask & ~1;
+
+        for (int i = index; i <= index+1; i++)
+        {
+            long data = tableData[i];
+
+            if ((tableKeys[i] ^ data) == key && (data != 0 || tableKeys[i] != 0))
+                return data;
+        }
+
+        return -1;
+    }
+
+    //Stores the numbers of a position, in its own slot if it has one, otherwise an empty slot, otherwise over the entry of the set with the least work behind it
+    private void store(long key, long data)
+    {
+        int index = (int)key & tableMask & ~1;
+        int slot = -1;
+
+        for (int i = index; i <= index+1; i++)
+        {
+            if ((tableKeys[i] ^ tableData[i]) == key || (tableKeys[i] == 0 && tableData[i] == 0))
+            {
+                slot = i;
+                break;
+            }
+        }
+
+        if (slot == -1)
+            slot = work(tableData[index]) <= work(tableData[index+1]) ? index : index+1;
+
+        tableData[slot] = data;
+        tableKeys[slot] = key ^ data;
+    }
+
+    //Estimates the work behind an entry. Resolved positions are kept over unresolved ones.
+    private static long work(long data)
+    {
+        int proof = proofNumber(data);
+        int disproof = disproofNumber(data);
+
+        return proof == 0 || disproof == 0 ? Long.MAX_VALUE : (long)proof+disproof;
+    }
+
+    //Adds proof or disproof numbers. Only a resolved child makes the sum infinite, so a sum which is merely large is never taken for a resolved position.
+    private static int sum(int a, int b)
+    {
+        return a == INFINITE || b == INFINITE ? INFINITE : Math.min(a+b, INFINITE-1);
+    }
+
+    private static int proofNumber(long data)
+    {
+        return (int)data;
+    }
+
+    private static int disproofNumber(long data)
+    {
+        return (int)(data >>> 32);
+    }
+}
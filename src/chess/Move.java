@@ -15,13 +15,17 @@ public class Move implements Comparable<Move> {
     private final Point startSquare;
     private final Point endSquare;
     
-    private double value;
+    private int value; //Score of the move in centipawns
     
     private boolean isFirstKingMove;
     private boolean isFirstRookMove;
     private boolean enPassant;
     private boolean promotion;
     private char enPassantVal; //0-7 for enabling en passant on a specific file, ' ' for disabling it.
+    private char halfmoveClockVal; //Plies since the last capture or pawn move before this move was made, restored when it is unmade
+    private char openingSumVal; //Evaluation sums before this move was made, restored when it is unmade
+    private char endgameSumVal;
+    private char phaseVal; //Game phase before this move was made
     private int castleVal;
     private char capturedPiece;
     private char movingPiece;
@@ -29,6 +33,8 @@ public class Move implements Comparable<Move> {
     
     private boolean isAbortion;
     
+    private int nodeCount; //Number of nodes searched below this move on the last iteration, used for move ordering at the root
+    
     private static final char[] COORD_NOTATION = new char[]{'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h'};
     
     //Game is over
@@ -103,12 +109,12 @@ public class Move implements Comparable<Move> {
         return toNotation(startSquare) + "-" + toNotation(endSquare);
     }
     
-    public void setValue(double value)
+    public void setValue(int value)
     {
         this.value = value;
     }
     
-    public double getValue()
+    public int getValue()
     {
         return value;
     }
@@ -207,6 +213,46 @@ public class Move implements Comparable<Move> {
         this.enPassantVal = enPassantVal;
     }
     
+    public char getHalfmoveClockVal()
+    {
+        return halfmoveClockVal;
+    }
+    
+    public void setHalfmoveClockVal(char halfmoveClockVal)
+    {
+        this.halfmoveClockVal = halfmoveClockVal;
+    }
+    
+    public char getOpeningSumVal()
+    {
+        return openingSumVal;
+    }
+    
+    public void setOpeningSumVal(char openingSumVal)
+    {
+        this.openingSumVal = openingSumVal;
+    }
+    
+    public char getEndgameSumVal()
+    {
+        return endgameSumVal;
+    }
+    
+    public void setEndgameSumVal(char endgameSumVal)
+    {
+        this.endgameSumVal = endgameSumVal;
+    }
+    
+    public char getPhaseVal()
+    {
+        return phaseVal;
+    }
+    
+    public void setPhaseVal(char phaseVal)
+    {
+        this.phaseVal = phaseVal;
+    }
+    
     private int getPieceValue(char piece)
     {
         switch (Character.toLowerCase(piece))
@@ -266,6 +312,16 @@ public class Move implements Comparable<Move> {
         return isAbortion;
     }
     
+    public void setNodeCount(int nodeCount)
+    {
+        this.nodeCount = nodeCount;
+    }
+    
+    public int getNodeCount()
+    {
+        return nodeCount;
+    }
+    
     public Move copy()
     {
         Move m;
@@ -283,11 +339,16 @@ public class Move implements Comparable<Move> {
         m.setCastleVal(castleVal);
         m.setEnPassant(enPassant);
         m.setEnPassantVal(enPassantVal);
+        m.setHalfmoveClockVal(halfmoveClockVal);
+        m.setOpeningSumVal(openingSumVal);
+        m.setEndgameSumVal(endgameSumVal);
+        m.setPhaseVal(phaseVal);
         m.setFirstRookMove(isFirstRookMove);
         m.setMovingPiece(movingPiece);
         m.setPromotion(promotion);
         m.setValue(value);
         m.setPromotingTo(promotingTo);
+        m.setNodeCount(nodeCount);
         if (isAbortion)
             m.setAbortion();
 
@@ -0,0 +1,361 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/*
+An efficiently updatable neural network evaluator, an alternative to the handcrafted evaluation.
+The input is one feature for each kind of piece on each square, 768 in all, seen from both sides: from black's side, colours are swapped and the board mirrored vertically.
+The first layer turns the features of each side into an accumulator of HIDDEN values. As a move changes only a few features, the accumulators of a position are found from its parent's
+by adding and subtracting a few weight rows, instead of from every piece on the board. A clipped ReLU of both accumulators, white's first, feeds a single output: the score from white's point of view.
+
+Weights are quantized: the first layer's are int16, scaled so that an accumulator value of ACTIVATION_MAX stands for 1, and the output layer's are int16 scaled by OUTPUT_WEIGHT_SCALE.
+Everything runs on the CPU in integer arithmetic. The loops over the hidden values are kept simple so that HotSpot compiles them to SIMD instructions, and where the Vector API is available
+they run as the kernels of VectorKernels.Network instead, which also vectorize the output's sum of products. A leaf, updated and scored, is several times as fast that way.
+The accumulators are int16 and the output is summed in an int, so read rejects networks which could overflow either: a hidden value's bias plus 32 times its largest feature weight
+(a position has at most 32 pieces) must fit in a short, and 255 times the sum of the output weights' magnitudes, plus the output bias, in an int.
+
+File format, big-endian: the int MAGIC, the hidden size, the first layer's weights by feature then hidden value, its biases, the output weights (white's accumulator, then black's) and the output bias as an int.
+*/
+public class Nnue {
+    private static final int MAGIC = 0x4E4E5545; //"NNUE"
+    private static final int FEATURES = 768;
+    private static final int ACTIVATION_MAX = 255; //Accumulator value clipped to, standing for 1.0
+    private static final int OUTPUT_WEIGHT_SCALE = 64;
+    private static final int OUTPUT_SCALE = 400; //Centipawns for an output of 1.0
+    private static final int MAX_SCORE = 10000; //Scores are clipped to this, well clear of the mate scores
+
+    private final int hidden; //Size of each side's accumulator
+    private final short[] featureWeights; //hidden values for each feature
+    private final short[] featureBiases;
+    private final short[] outputWeights; //2*hidden, white's accumulator first
+    private final int outputBias;
+    private boolean vectorized = VectorKernels.AVAILABLE;
+
+    private Nnue(int hidden)
+    {
+        this.hidden = hidden;
+        featureWeights = new short[FEATURES*hidden];
+        featureBiases = new short[hidden];
+        outputWeights = new short[2*hidden];
+        outputBias = 0;
+    }
+
+    private Nnue(int hidden, short[] featureWeights, short[] featureBiases, short[] outputWeights, int outputBias)
+    {
+        this.hidden = hidden;
+        this.featureWeights = featureWeights;
+        this.featureBiases = featureBiases;
+        this.outputWeights = outputWeights;
+        this.outputBias = outputBias;
+    }
+
+    public static Nnue load(Path path) throws IOException
+    {
+        try (InputStream in = Files.newInputStream(path))
+        {
+            return read(in);
+        }
+    }
+
+    public static Nnue read(InputStream stream) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a network file");
+
+        int hidden = in.readInt();
+
+        if (hidden <= 0 || hidden > 4096)
+            throw new IOException("Bad hidden size " + hidden);
+
+        short[] featureWeights = readShorts(in, FEATURES*hidden);
+        short[] featureBiases = readShorts(in, hidden);
+        short[] outputWeights = readShorts(in, 2*hidden);
+        int outputBias = in.readInt();
+
+        for (int i = 0; i < hidden; i++)
+        {
+            int largest = 0;
+
+            for (int feature = 0; feature < FEATURES; feature++)
+                largest = Math.max(largest, Math.abs(featureWeights[feature*hidden+i]));
+
+            if (Math.abs(featureBiases[i]) + 32*largest > Short.MAX_VALUE)
+                throw new IOException("Feature weights of hidden value " + i + " could overflow its accumulator");
+        }
+
+        long outputRange = Math.abs((long)outputBias);
+
+        for (short weight : outputWeights)
+            outputRange += (long)Math.abs(weight)*ACTIVATION_MAX;
+
+        if (outputRange > Integer.MAX_VALUE)
+            throw new IOException("Output weights could overflow the output sum");
+
+        return new Nnue(hidden, featureWeights, featureBiases, outputWeights, outputBias);
+    }
+
+    private static short[] readShorts(DataInputStream in, int count) throws IOException
+    {
+        short[] values = new short[count];
+
+        for (int i = 0; i < count; i++)
+            values[i] = in.readShort();
+
+        return values;
+    }
+
+    public void save(Path path) throws IOException
+    {
+        try (OutputStream out = Files.newOutputStream(path))
+        {
+            write(out);
+        }
+    }
+
+    public void write(OutputStream stream) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+
+        out.writeInt(MAGIC);
+        out.writeInt(hidden);
+
+        for (short[] values : new short[][]{featureWeights, featureBiases, outputWeights})
+        {
+            for (short value : values)
+                out.writeShort(value);
+        }
+
+        out.writeInt(outputBias);
+        out.flush();
+    }
+
+    //A network of random weights with the given hidden size. Its evaluations mean nothing, but it costs the same to run as a trained one, for benchmarks.
+    public static Nnue random(int hidden, long seed)
+    {
+        Random random = new Random(seed);
+        Nnue network = new Nnue(hidden);
+
+        for (int i = 0; i < network.featureWeights.length; i++)
+            network.featureWeights[i] = (short)(random.nextInt(65)-32);
+
+        for (int i = 0; i < hidden; i++)
+            network.featureBiases[i] = (short)random.nextInt(64);
+
+        for (int i = 0; i < network.outputWeights.length; i++)
+            network.outputWeights[i] = (short)(random.nextInt(129)-64);
+
+        return network;
+    }
+
+    public int getHidden()
+    {
+        return hidden;
+    }
+
+    public boolean isVectorized()
+    {
+        return vectorized;
+    }
+
+    //Chooses between the Vector API kernels, used by default where the module is available, and the scalar loops. Set before the network's accumulators are used.
+    public void setVectorized(boolean vectorized)
+    {
+        this.vectorized = vectorized && VectorKernels.AVAILABLE;
+    }
+
+    //Creates the accumulators a search thread needs, for positions up to the given number of plies from the root
+    public Accumulator newAccumulator(int maxPly)
+    {
+        return new Accumulator(maxPly);
+    }
+
+    //Index of a piece among the features from white's side: white pieces 0-5, black 6-11, or -1 for an empty square
+    private static int pieceIndex(char piece)
+    {
+        switch (piece)
+        {
+            case 'p': return 0;
+            case 'n': return 1;
+            case 'b': return 2;
+            case 'r': return 3;
+            case 'q': return 4;
+            case 'k': return 5;
+            case 'P': return 6;
+            case 'N': return 7;
+            case 'B': return 8;
+            case 'R': return 9;
+            case 'Q': return 10;
+            case 'K': return 11;
+            default: return -1;
+        }
+    }
+
+    //Start of the weights of a piece's feature, from white's or black's side. From black's side colours are swapped and the board mirrored.
+    private int featureOffset(char piece, int x, int y, boolean whiteSide)
+    {
+        int index = pieceIndex(piece);
+
+        return whiteSide ? (index*64 + y*8+x)*hidden : (((index+6)%12)*64 + (7-y)*8+x)*hidden;
+    }
+
+    /*
+    Accumulators of the positions along the line being searched, one pair per ply. Owned by a single search thread.
+    refresh sets up the root from its pieces, and update each following ply from the one before, so unmaking a move needs no work: the parent's accumulators are still in place.
+    */
+    public class Accumulator
+    {
+        private final short[][] values; //For each ply, white's accumulator followed by black's
+        private int ply; //Ply of the position last refreshed or updated, which evaluate scores
+
+        private Accumulator(int maxPly)
+        {
+            values = new short[maxPly+1][2*hidden];
+        }
+
+        public Nnue getNetwork()
+        {
+            return Nnue.this;
+        }
+
+        //Calculates the accumulators of a root position from scratch
+        public void refresh(char[][] position)
+        {
+            short[] accumulator = values[0];
+
+            System.arraycopy(featureBiases, 0, accumulator, 0, hidden);
+            System.arraycopy(featureBiases, 0, accumulator, hidden, hidden);
+
+            for (int y = 0; y < 8; y++)
+            {
+                for (int x = 0; x < 8; x++)
+                {
+                    if (position[y][x] != ' ')
+                        addFeature(accumulator, position[y][x], x, y, 1);
+                }
+            }
+
+            ply = 0;
+        }
+
+        //Calculates the accumulators of a position at the given ply, reached by a move just made on it, from those of the previous ply
+        public void update(int ply, char[][] position, Move move)
+        {
+            short[] accumulator = values[ply];
+            int startX = move.getStartSquare().x, startY = move.getStartSquare().y;
+            int endX = move.getEndSquare().x, endY = move.getEndSquare().y;
+            char endPiece = position[endY][endX];
+            char startPiece = !move.isPromotion() ? endPiece : Character.isLowerCase(endPiece) ? 'p' : 'P';
+
+            movePiece(values[ply-1], accumulator, startPiece, startX, startY, endPiece, endX, endY);
+
+            if (move.getCapturedPiece() != ' ')
+                addFeature(accumulator, move.getCapturedPiece(), endX, endY, -1);
+            else if (move.isEnPassant())
+                addFeature(accumulator, Character.isLowerCase(startPiece) ? 'P' : 'p', endX, startY, -1);
+
+            if (move.getCastleVal() == 1)
+            {
+                addFeature(accumulator, position[startY][5], 7, startY, -1);
+                addFeature(accumulator, position[startY][5], 5, startY, 1);
+            }
+            else if (move.getCastleVal() == -1)
+            {
+                addFeature(accumulator, position[startY][3], 0, startY, -1);
+                addFeature(accumulator, position[startY][3], 3, startY, 1);
+            }
+
+            this.ply = ply;
+        }
+
+        //Sets an accumulator to another with a piece moved, which may change on the way by promotion. Copying and updating in the same pass reads and writes each value once.
+        private void movePiece(short[] from, short[] to, char startPiece, int startX, int startY, char endPiece, int endX, int endY)
+        {
+            int removeWhite = featureOffset(startPiece, startX, startY, true), addWhite = featureOffset(endPiece, endX, endY, true);
+            int removeBlack = featureOffset(startPiece, startX, startY, false), addBlack = featureOffset(endPiece, endX, endY, false);
+
+            if (vectorized)
+            {
+                VectorKernels.Network.movePiece(from, to, 0, featureWeights, removeWhite, addWhite, hidden);
+                VectorKernels.Network.movePiece(from, to, hidden, featureWeights, removeBlack, addBlack, hidden);
+                return;
+            }
+
+            for (int i = 0; i < hidden; i++)
+                to[i] = (short)(from[i] - featureWeights[removeWhite+i] + featureWeights[addWhite+i]);
+
+            for (int i = 0; i < hidden; i++)
+                to[hidden+i] = (short)(from[hidden+i] - featureWeights[removeBlack+i] + featureWeights[addBlack+i]);
+        }
+
+        //Adds (sign 1) or removes (sign -1) a piece from both sides' accumulators
+        private void addFeature(short[] accumulator, char piece, int x, int y, int sign)
+        {
+            int whiteOffset = featureOffset(piece, x, y, true);
+            int blackOffset = featureOffset(piece, x, y, false);
+
+            if (vectorized && sign > 0)
+            {
+                VectorKernels.Network.add(accumulator, 0, featureWeights, whiteOffset, hidden);
+                VectorKernels.Network.add(accumulator, hidden, featureWeights, blackOffset, hidden);
+            }
+            else if (vectorized)
+            {
+                VectorKernels.Network.subtract(accumulator, 0, featureWeights, whiteOffset, hidden);
+                VectorKernels.Network.subtract(accumulator, hidden, featureWeights, blackOffset, hidden);
+            }
+            else if (sign > 0)
+            {
+                for (int i = 0; i < hidden; i++)
+                    accumulator[i] += featureWeights[whiteOffset+i];
+
+                for (int i = 0; i < hidden; i++)
+                    accumulator[hidden+i] += featureWeights[blackOffset+i];
+            }
+            else
+            {
+                for (int i = 0; i < hidden; i++)
+                    accumulator[i] -= featureWeights[whiteOffset+i];
+
+                for (int i = 0; i < hidden; i++)
+                    accumulator[hidden+i] -= featureWeights[blackOffset+i];
+            }
+        }
+
+        //Scores the position last refreshed or updated, in centipawns from white's point of view
+        public int evaluate()
+        {
+            short[] accumulator = values[ply];
+            int sum = 0;
+
+            if (vectorized)
+                sum = VectorKernels.Network.output(accumulator, outputWeights, 2*hidden, (short)ACTIVATION_MAX);
+            else
+            {
+                for (int i = 0; i < 2*hidden; i++)
+                    sum += Math.min(Math.max(accumulator[i], 0), ACTIVATION_MAX)*outputWeights[i];
+            }
+
+            long score = (long)(sum + outputBias)*OUTPUT_SCALE/(ACTIVATION_MAX*OUTPUT_WEIGHT_SCALE); //read keeps the sum within an int
+
+            return (int)Math.max(Math.min(score, MAX_SCORE), -MAX_SCORE);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+/*
+Pawn structure terms of the evaluation, and a table caching them by the pawn structure they were calculated for.
+Pawns move and are captured far less often than other pieces, so most leaves of a search share their pawn structure with many others and find its terms here instead of recalculating them.
+Positions are looked up by a key xoring Board.getPawnZobrist for every pawn on the board, so positions with the same pawns on the same squares share an entry whatever the other pieces.
+
+Each entry is two longs, like the transposition table: the key, stored xored with the data so that an entry torn by two threads writing at once fails verification, and a data word packing
+the opening score (bits 0-15), the endgame score (bits 16-31), the number of pawns missing from each king's shelter (two bits each from bit 32: white kingside, white queenside, black kingside, black queenside)
+and a bit marking the entry as filled. The table is lossy: a new structure always replaces whatever occupied its slot.
+*/
+public class PawnTable {
+    public static final int DEFAULT_SIZE = 1024; //In kilobytes
+    private static final int ENTRY_SIZE = 16; //Bytes per entry
+
+    private static final long FILLED = 1L << 40; //Set in the data of every entry stored, so that an empty slot never matches
+
+    /*
+    Scores in centipawns for each pawn, opening and endgame, are evaluation parameters: doubled (behind another of its colour on the same file), isolated (no pawn of its colour on the neighbouring files)
+    and backward (behind the pawns of its colour on the neighbouring files, and unable to advance without being taken by a pawn).
+    */
+
+    //Bonus for a passed pawn (no enemy pawn in front of it on its own or the neighbouring files), indexed by the number of ranks it has advanced, before scaling by its parameter
+    private static final int[] PASSED_OPENING = {0, 5, 10, 20, 35, 55};
+    private static final int[] PASSED_ENDGAME = {0, 10, 20, 40, 70, 110};
+
+    private final long[] keys;
+    private final long[] data;
+    private final int mask;
+
+    //Creates a table of at most the given size in kilobytes. The number of entries is rounded down to a power of two.
+    public PawnTable(int sizeKb)
+    {
+        int entries = Integer.highestOneBit(Math.max((int)Math.min((long)sizeKb*1024/ENTRY_SIZE, 1 << 30), 1));
+
+        keys = new long[entries];
+        data = new long[entries];
+        mask = entries-1;
+    }
+
+    //Returns the data stored for a pawn key, or 0 if it is not in the table
+    public long probe(long key)
+    {
+        int index = (int)key & mask;
+        long entry = data[index];
+
+        return (keys[index] ^ entry) == key && (entry & FILLED) != 0 ? entry : 0;
+    }
+
+    public void store(long key, long entry)
+    {
+        int index = (int)key & mask;
+
+        data[index] = entry;
+        keys[index] = key ^ entry;
+    }
+
+    //Size of the table in kilobytes
+    public int getSize()
+    {
+        return (int)((long)keys.length*ENTRY_SIZE/1024);
+    }
+
+    //Calculates the key of a position's pawn structure
+    public static long calculateKey(char[][] position)
+    {
+        long key = 0;
+
+        for (int y = 0; y < 8; y++)
+        {
+            for (int x = 0; x < 8; x++)
+            {
+                if (position[y][x] == 'p')
+                    key ^= Board.getPawnZobrist(true, x, y);
+                else if (position[y][x] == 'P')
+                    key ^= Board.getPawnZobrist(false, x, y);
+            }
+        }
+
+        return key;
+    }
+
+    //Calculates the pawn structure terms of a position, packed as the data of an entry
+    public static long evaluate(char[][] position)
+    {
+        //Bitmasks of the rows holding a pawn of each colour, for each file
+        int[] whiteFiles = new int[8];
+        int[] blackFiles = new int[8];
+
+        for (int y = 0; y < 8; y++)
+        {
+            for (int x = 0; x < 8; x++)
+            {
+                if (position[y][x] == 'p')
+                    whiteFiles[x] |= 1 << y;
+                else if (position[y][x] == 'P')
+                    blackFiles[x] |= 1 << y;
+            }
+        }
+
+        int[] parameters = Evaluation.getParameterValues();
+        int doubledOpening = parameters[EvaluationParameters.DOUBLED_OPENING], doubledEndgame = parameters[EvaluationParameters.DOUBLED_ENDGAME];
+        int isolatedOpening = parameters[EvaluationParameters.ISOLATED_OPENING], isolatedEndgame = parameters[EvaluationParameters.ISOLATED_ENDGAME];
+        int backwardOpening = parameters[EvaluationParameters.BACKWARD_OPENING], backwardEndgame = parameters[EvaluationParameters.BACKWARD_ENDGAME];
+        int passedOpeningScale = parameters[EvaluationParameters.PASSED_OPENING_SCALE], passedEndgameScale = parameters[EvaluationParameters.PASSED_ENDGAME_SCALE];
+        int opening = 0;
+        int endgame = 0;
+
+        for (int x = 0; x < 8; x++)
+        {
+            int neighbours = x > 0 ? whiteFiles[x-1] : 0;
+            int enemies = blackFiles[x] | (x > 0 ? blackFiles[x-1] : 0);
+
+            if (x < 7)
+            {
+                neighbours |= whiteFiles[x+1];
+                enemies |= blackFiles[x+1];
+            }
+
+            //White pawns advance towards row 0
+            for (int y = 1; y < 7; y++)
+            {
+                if ((whiteFiles[x] & 1 << y) == 0)
+                    continue;
+
+                if ((whiteFiles[x] & (1 << y)-1) != 0) //Another white pawn in front
+                {
+                    opening += doubledOpening;
+                    endgame += doubledEndgame;
+                }
+
+                if (neighbours == 0)
+                {
+                    opening += isolatedOpening;
+                    endgame += isolatedEndgame;
+                }
+                else if ((neighbours & -(1 << y)) == 0 && isAttackedByPawn(blackFiles, x, y-1, false)) //All neighbours are in front, and the square ahead is covered
+                {
+                    opening += backwardOpening;
+                    endgame += backwardEndgame;
+                }
+
+                if ((enemies & (1 << y)-1) == 0)
+                {
+                    opening += PASSED_OPENING[6-y]*passedOpeningScale/100;
+                    endgame += PASSED_ENDGAME[6-y]*passedEndgameScale/100;
+                }
+            }
+
+            neighbours = (x > 0 ? blackFiles[x-1] : 0) | (x < 7 ? blackFiles[x+1] : 0);
+            enemies = whiteFiles[x] | (x > 0 ? whiteFiles[x-1] : 0) | (x < 7 ? whiteFiles[x+1] : 0);
+
+            //Black pawns advance towards row 7
+            for (int y = 1; y < 7; y++)
+            {
+                if ((blackFiles[x] & 1 << y) == 0)
+                    continue;
+
+                if ((blackFiles[x] & -(1 << (y+1))) != 0)
+                {
+                    opening -= doubledOpening;
+                    endgame -= doubledEndgame;
+                }
+
+                if (neighbours == 0)
+                {
+                    opening -= isolatedOpening;
+                    endgame -= isolatedEndgame;
+                }
+                else if ((neighbours & (1 << (y+1))-1) == 0 && isAttackedByPawn(whiteFiles, x, y+1, true))
+                {
+                    opening -= backwardOpening;
+                    endgame -= backwardEndgame;
+                }
+
+                if ((enemies & -(1 << (y+1))) == 0)
+                {
+                    opening -= PASSED_OPENING[y-1]*passedOpeningScale/100;
+                    endgame -= PASSED_ENDGAME[y-1]*passedEndgameScale/100;
+                }
+            }
+        }
+
+        long entry = (opening & 0xFFFFL) | (endgame & 0xFFFFL) << 16 | FILLED;
+
+        entry |= (long)missingPawns(position, 6, 5, 'p') << 32;
+        entry |= (long)missingPawns(position, 6, 0, 'p') << 34;
+        entry |= (long)missingPawns(position, 1, 5, 'P') << 36;
+        entry |= (long)missingPawns(position, 1, 0, 'P') << 38;
+
+        return entry;
+    }
+
+    //Whether a square is attacked by a pawn of the given colour, whose pawns are given as bitmasks of rows by file
+    private static boolean isAttackedByPawn(int[] files, int x, int y, boolean isWhite)
+    {
+        int row = isWhite ? y+1 : y-1; //Row the attacking pawn would stand on
+
+        if (row < 0 || row > 7)
+            return false;
+
+        return x > 0 && (files[x-1] & 1 << row) != 0 || x < 7 && (files[x+1] & 1 << row) != 0;
+    }
+
+    //Counts the squares of the three in a row, starting from a file, not holding the given pawn
+    private static int missingPawns(char[][] position, int y, int x, char pawn)
+    {
+        int missing = 0;
+
+        for (int i = x; i < x+3; i++)
+        {
+            if (position[y][i] != pawn)
+                missing++;
+        }
+
+        return missing;
+    }
+
+    public static int getOpening(long entry)
+    {
+        return (short)entry;
+    }
+
+    public static int getEndgame(long entry)
+    {
+        return (short)(entry >>> 16);
+    }
+
+    //Number of pawns (0-3) missing from the three squares in front of a king castled to the given side
+    public static int getMissingShelter(long entry, boolean isWhite, boolean kingside)
+    {
+        return (int)(entry >>> (32 + (isWhite ? 0 : 4) + (kingside ? 0 : 2))) & 3;
+    }
+}
@@ -13,6 +13,7 @@ public interface Player {
     public Move getPremove();
     public void startThinking();
     public void stopThinking();
+    public void opponentMoved(Move move); //Called after the opponent's move is made and before startThinking
     public void clearPremoves();
     public boolean isHuman();
     public void setClock(Timer timer);
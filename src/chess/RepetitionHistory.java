@@ -0,0 +1,97 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+import java.util.Arrays;
+
+/*
+Stack of the zobrist hashes of every position reached, used to detect repeated positions. The game keeps one for the positions actually played,
+and each search thread keeps its own copy, extended with the positions along the line it is currently searching.
+Alongside each hash, the stack stores how many plies have passed since the last irreversible move (a capture, pawn move or loss of castling rights).
+No position before an irreversible move can occur again, so scans stop there.
+*/
+public class RepetitionHistory {
+    private long[] hashes; //Zobrist hash of each position, oldest first
+    private int[] reversiblePlies; //Plies since the last irreversible move for each position
+    private int size; //Number of positions in the stack
+
+    public RepetitionHistory(int capacity)
+    {
+        hashes = new long[capacity];
+        reversiblePlies = new int[capacity];
+        size = 0;
+    }
+
+    //Adds a position reached by a move. The zobrist hash does not include the side to move, so positions are only ever compared two plies apart.
+    public void push(long hash, boolean irreversible)
+    {
+        if (size == hashes.length)
+        {
+            hashes = Arrays.copyOf(hashes, size*2);
+            reversiblePlies = Arrays.copyOf(reversiblePlies, size*2);
+        }
+
+        hashes[size] = hash;
+        reversiblePlies[size] = (irreversible || size == 0) ? 0 : reversiblePlies[size-1]+1;
+        size++;
+    }
+
+    //Removes the most recent position when its move is unmade
+    public void pop()
+    {
+        size--;
+    }
+
+    //Counts how many times a position about to be reached has occurred before, with the same side to move
+    public int countRepetitions(long hash, boolean irreversible)
+    {
+        if (irreversible || size == 0)
+            return 0;
+
+        int occurrences = 0;
+        int oldest = size-1-reversiblePlies[size-1]; //The earliest position which can still repeat
+
+        for (int i = size-2; i >= oldest; i -= 2)
+        {
+            if (hashes[i] == hash)
+                occurrences++;
+        }
+
+        return occurrences;
+    }
+
+    //Returns true if a position about to be reached has occurred before. The search treats a single repetition as a draw.
+    public boolean isRepetition(long hash, boolean irreversible)
+    {
+        return countRepetitions(hash, irreversible) > 0;
+    }
+
+    //Replaces the contents of this stack with those of another
+    public void copyFrom(RepetitionHistory other)
+    {
+        if (hashes.length < other.size)
+        {
+            hashes = new long[other.hashes.length];
+            reversiblePlies = new int[other.hashes.length];
+        }
+
+        System.arraycopy(other.hashes, 0, hashes, 0, other.size);
+        System.arraycopy(other.reversiblePlies, 0, reversiblePlies, 0, other.size);
+        size = other.size;
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/*
+Java Flight Recorder events emitted by the computer's search, for viewing in JDK Mission Control next to GC and CPU activity.
+Callers check shouldCommit() before filling in an event, so when no recording is running an event costs no more than the check.
+*/
+final class SearchEvents {
+    private SearchEvents() {} //Not instantiated
+
+    //Loads the event classes and the Flight Recorder, which takes long enough to matter if it first happens while the clock is running
+    static void initialize()
+    {
+        new IterationEvent().shouldCommit();
+        new TimeDecisionEvent().shouldCommit();
+        new AbortEvent().shouldCommit();
+        new TranspositionEvent().shouldCommit();
+    }
+
+    @Name("chess.Iteration")
+    @Label("Search Iteration")
+    @Description("One completed iteration of the iterative deepening search")
+    @Category({"Chess", "Search"})
+    @StackTrace(false)
+    static final class IterationEvent extends Event
+    {
+        @Label("White")
+        boolean isWhite;
+
+        @Label("Depth")
+        int depth;
+
+        @Label("Score")
+        @Description("Centipawns from white's point of view")
+        int score;
+
+        @Label("Nodes")
+        @Description("Nodes searched during the iteration")
+        long nodes;
+
+        @Label("Best Move")
+        String bestMove;
+    }
+
+    @Name("chess.TimeDecision")
+    @Label("Time Decision")
+    @Description("Time allotted to a move by the time manager")
+    @Category({"Chess", "Search"})
+    @StackTrace(false)
+    static final class TimeDecisionEvent extends Event
+    {
+        @Label("White")
+        boolean isWhite;
+
+        @Label("Time Left")
+        @Timespan(Timespan.MILLISECONDS)
+        long timeLeft;
+
+        @Label("Increment")
+        @Timespan(Timespan.MILLISECONDS)
+        long increment;
+
+        @Label("Delay")
+        @Timespan(Timespan.MILLISECONDS)
+        long delay;
+
+        @Label("Soft Limit")
+        @Timespan(Timespan.MILLISECONDS)
+        long softLimit;
+
+        @Label("Hard Limit")
+        @Timespan(Timespan.MILLISECONDS)
+        long hardLimit;
+
+        @Label("Moves Played")
+        int movesPlayed;
+
+        @Label("Ponder Hit")
+        boolean ponderHit;
+    }
+
+    @Name("chess.SearchAbort")
+    @Label("Search Abort")
+    @Description("An iteration abandoned because time ran out or the search was stopped")
+    @Category({"Chess", "Search"})
+    @StackTrace(false)
+    static final class AbortEvent extends Event
+    {
+        @Label("White")
+        boolean isWhite;
+
+        @Label("Completed Depth")
+        int completedDepth;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.MILLISECONDS)
+        long elapsed;
+
+        @Label("Stopped")
+        @Description("Whether the search was stopped from outside rather than by the clock")
+        boolean stopped;
+
+        @Label("Stop Latency")
+        @Timespan(Timespan.MICROSECONDS)
+        long stopLatency;
+    }
+
+    @Name("chess.TranspositionTable")
+    @Label("Transposition Table")
+    @Description("Occupancy of the transposition table after an iteration")
+    @Category({"Chess", "Search"})
+    @StackTrace(false)
+    static final class TranspositionEvent extends Event
+    {
+        @Label("Entries")
+        int entries;
+
+        @Label("Capacity")
+        int capacity;
+
+        @Label("Fill")
+        @Percentage
+        double fill;
+
+        @Label("Evictions")
+        @Description("Entries overwritten by a different position during the iteration")
+        long evictions;
+    }
+}
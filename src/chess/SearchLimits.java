@@ -0,0 +1,110 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+/*
+Limits on a search started through ComputerPlayer.search. Any combination may be set, and the search ends as soon as any one of them is reached.
+With no limits at all, or with infinite set, the search runs until it is stopped or reaches the maximum depth.
+Depth is counted in plies. Node and depth limits make searches reproducible, since they do not depend on the speed of the machine.
+*/
+public class SearchLimits {
+    private int depth = 0; //Maximum depth in plies. 0 for no limit.
+    private long nodes = 0; //Maximum number of nodes. 0 for no limit.
+    private long moveTime = 0; //Time to search in milliseconds. 0 for no limit.
+    private int mate = 0; //Search for a mate in this many moves, and stop when one is found. 0 to search normally.
+    private boolean infinite = false; //Search until stopped, ignoring the other limits
+
+    public static SearchLimits depth(int plies)
+    {
+        return new SearchLimits().setDepth(plies);
+    }
+
+    public static SearchLimits nodes(long count)
+    {
+        return new SearchLimits().setNodes(count);
+    }
+
+    public static SearchLimits moveTime(long milliseconds)
+    {
+        return new SearchLimits().setMoveTime(milliseconds);
+    }
+
+    public static SearchLimits mate(int moves)
+    {
+        return new SearchLimits().setMate(moves);
+    }
+
+    public static SearchLimits infinite()
+    {
+        return new SearchLimits().setInfinite(true);
+    }
+
+    public SearchLimits setDepth(int plies)
+    {
+        depth = Math.max(plies, 0);
+        return this;
+    }
+
+    public SearchLimits setNodes(long count)
+    {
+        nodes = Math.max(count, 0);
+        return this;
+    }
+
+    public SearchLimits setMoveTime(long milliseconds)
+    {
+        moveTime = Math.max(milliseconds, 0);
+        return this;
+    }
+
+    public SearchLimits setMate(int moves)
+    {
+        mate = Math.max(moves, 0);
+        return this;
+    }
+
+    public SearchLimits setInfinite(boolean infinite)
+    {
+        this.infinite = infinite;
+        return this;
+    }
+
+    public int getDepth()
+    {
+        return infinite ? 0 : depth;
+    }
+
+    public long getNodes()
+    {
+        return infinite ? 0 : nodes;
+    }
+
+    public long getMoveTime()
+    {
+        return infinite ? 0 : moveTime;
+    }
+
+    public int getMate()
+    {
+        return infinite ? 0 : mate;
+    }
+
+    public boolean isInfinite()
+    {
+        return infinite;
+    }
+
+    @Override
+    public String toString()
+    {
+        if (infinite)
+            return "infinite";
+
+        return "depth " + depth + " nodes " + nodes + " movetime " + moveTime + " mate " + mate;
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+Structured log of the computer's searches. Logging a record copies a few numbers into a preallocated ring buffer and returns without waiting on I/O.
+A background thread drains the ring and writes each record as a line of JSON to the file named by the chess.searchLog system property, such as search-log.jsonl.
+Nothing is logged unless the property is set to a file name. If the writer falls behind and the ring fills, new records are dropped and counted.
+
+Each record is RECORD_SIZE longs: the event and player, the wall clock time in milliseconds, up to FIELD_COUNT numeric fields whose meaning depends on the event,
+and a packed variation of up to PV_MOVES moves, 12 bits (start and end square) per move and five moves per long.
+*/
+public class SearchLog {
+    public static final int EVENT_SEARCH = 1; //Time decision for a search: time left, soft limit, hard limit, moves played, ponder flag
+    public static final int EVENT_ITERATION = 2; //Completed iteration: depth, score, nodes, nodes per second, elapsed time, stable iterations, branching factor*100
+    public static final int EVENT_ABORT = 3; //Aborted iteration: last completed depth, elapsed time, stop latency in microseconds (-1 if the clock stopped the search)
+    public static final int EVENT_RESULT = 4; //Move chosen: depth, score, elapsed time, nodes, nodes per second, transposition table entries
+    public static final int EVENT_START = 5; //Search request picked up: latency in microseconds
+    public static final int EVENT_PONDER = 6; //Ponder search started on the reply in the variation: latency in microseconds
+    public static final int EVENT_PONDER_HIT = 7;
+    public static final int EVENT_PONDER_MISS = 8;
+    public static final int EVENT_PV_LINE = 9; //Line of a multi-PV analysis: depth, rank, exact score
+    public static final int EVENT_MULTI_PV = 10; //Multi-PV overhead of an iteration: depth, lines, nodes of the main pass, nodes of the extra passes, overhead in percent
+
+    private static final String[] EVENT_NAMES = {"", "search", "iteration", "abort", "result", "start", "ponder", "ponderhit", "pondermiss", "pvline", "multipv"};
+    private static final String[][] FIELD_NAMES = {
+        {},
+        {"timeLeft", "softLimit", "hardLimit", "moves", "ponder"},
+        {"depth", "score", "nodes", "nps", "elapsed", "stable", "branchingFactor"},
+        {"depth", "elapsed", "stopLatency"},
+        {"depth", "score", "elapsed", "nodes", "nps", "ttEntries"},
+        {"latency"},
+        {"latency"},
+        {},
+        {},
+        {"depth", "rank", "score"},
+        {"depth", "lines", "mainNodes", "extraNodes", "overhead"},
+    };
+
+    private static final int FIELD_COUNT = 7;
+    private static final int PV_LONGS = 2;
+    private static final int PV_MOVES = PV_LONGS*5;
+    private static final int RECORD_SIZE = 2+FIELD_COUNT+PV_LONGS;
+    private static final int CAPACITY = 4096; //Records the ring can hold. Must be a power of two.
+    private static final long IDLE_PARK_NANOS = 20*1000000L; //How long the writer sleeps when the ring is empty
+
+    private static final boolean ENABLED;
+    private static final long[] records = new long[CAPACITY*RECORD_SIZE];
+    private static final AtomicLongArray published = new AtomicLongArray(CAPACITY); //Sequence number+1 of the record last written to each slot
+    private static final AtomicLong claimed = new AtomicLong(); //Sequence number of the next record to be written
+    private static volatile long drained; //Sequence number of the next record to be written out
+    private static final LongAdder dropped = new LongAdder();
+
+    private static BufferedWriter writer;
+
+    static
+    {
+        String path = System.getProperty("chess.searchLog", "");
+        boolean opened = false;
+
+        if (!path.isEmpty())
+        {
+            try {
+                writer = new BufferedWriter(new FileWriter(path, true));
+                opened = true;
+            } catch (IOException ex) {
+                Logger.getLogger(SearchLog.class.getName()).log(Level.WARNING, "Search log disabled", ex);
+            }
+        }
+
+        ENABLED = opened;
+
+        if (ENABLED)
+        {
+            Thread drainThread = new Thread(SearchLog::drain, "Search log writer");
+            drainThread.setDaemon(true);
+            drainThread.start();
+        }
+    }
+
+    private SearchLog() {} //Not instantiated
+
+    public static boolean isEnabled()
+    {
+        return ENABLED;
+    }
+
+    //Number of records dropped because the ring was full
+    public static long getDropped()
+    {
+        return dropped.sum();
+    }
+
+    public static void log(int event, boolean isWhite)
+    {
+        log(event, isWhite, 0, 0, 0, 0, 0, 0, 0, null);
+    }
+
+    public static void log(int event, boolean isWhite, long field0)
+    {
+        log(event, isWhite, field0, 0, 0, 0, 0, 0, 0, null);
+    }
+
+    public static void log(int event, boolean isWhite, long field0, long field1, long field2)
+    {
+        log(event, isWhite, field0, field1, field2, 0, 0, 0, 0, null);
+    }
+
+    /**
+     * Adds a record to the ring. Safe to call from any thread.
+     * @param event One of the EVENT_ constants
+     * @param isWhite Whether the record comes from the white computer player
+     * @param variation Moves to pack into the record, or null. Only the first PV_MOVES are kept.
+     */
+    public static void log(int event, boolean isWhite, long field0, long field1, long field2, long field3, long field4, long field5, long field6, List<Move> variation)
+    {
+        if (!ENABLED)
+            return;
+
+        long sequence;
+
+        do
+        {
+            sequence = claimed.get();
+
+            if (sequence-drained >= CAPACITY)
+            {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence+1));
+
+        int slot = (int)sequence & (CAPACITY-1);
+        int offset = slot*RECORD_SIZE;
+
+        records[offset] = event | (isWhite ? 0x100 : 0);
+        records[offset+1] = System.currentTimeMillis();
+        records[offset+2] = field0;
+        records[offset+3] = field1;
+        records[offset+4] = field2;
+        records[offset+5] = field3;
+        records[offset+6] = field4;
+        records[offset+7] = field5;
+        records[offset+8] = field6;
+
+        records[offset+9] = 0;
+        records[offset+10] = 0;
+
+        if (variation != null)
+        {
+            int i = 0;
+
+            for (Move move : variation)
+            {
+                if (i == PV_MOVES)
+                    break;
+
+                long code = (move.getStartSquare().y*8 + move.getStartSquare().x) << 6 | (move.getEndSquare().y*8 + move.getEndSquare().x); //Never zero, since a move changes square
+                records[offset+9+i/5] |= code << (12*(i%5));
+                i++;
+            }
+        }
+
+        published.lazySet(slot, sequence+1); //Publish the record to the writer once its contents are in place
+    }
+
+    //Writes records out as they are published, sleeping while the ring is empty
+    private static void drain()
+    {
+        StringBuilder line = new StringBuilder(256);
+
+        while (true)
+        {
+            long sequence = drained;
+            int slot = (int)sequence & (CAPACITY-1);
+
+            if (published.get(slot) != sequence+1)
+            {
+                try {
+                    writer.flush();
+                } catch (IOException ex) {
+                    Logger.getLogger(SearchLog.class.getName()).log(Level.WARNING, null, ex);
+                }
+
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+
+            line.setLength(0);
+            format(slot*RECORD_SIZE, line);
+            drained = sequence+1; //The slot may be reused from here on
+
+            try {
+                writer.write(line.toString());
+                writer.newLine();
+            } catch (IOException ex) {
+                Logger.getLogger(SearchLog.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    //Formats the record at the given offset as JSON
+    private static void format(int offset, StringBuilder line)
+    {
+        int event = (int)records[offset] & 0xFF;
+        String[] fieldNames = FIELD_NAMES[event];
+
+        line.append("{\"event\":\"").append(EVENT_NAMES[event]).append('"');
+        line.append(",\"player\":\"").append((records[offset] & 0x100) != 0 ? "white" : "black").append('"');
+        line.append(",\"time\":").append(records[offset+1]);
+
+        for (int i = 0; i < fieldNames.length; i++)
+            line.append(",\"").append(fieldNames[i]).append("\":").append(records[offset+2+i]);
+
+        if (records[offset+9] != 0)
+        {
+            line.append(",\"pv\":\"");
+
+            for (int i = 0; i < PV_MOVES; i++)
+            {
+                int code = (int)(records[offset+9+i/5] >>> (12*(i%5))) & 0xFFF;
+
+                if (code == 0)
+                    break;
+
+                if (i > 0)
+                    line.append(' ');
+
+                appendSquare(line, (code >> 6) & 0x3F);
+                line.append('-');
+                appendSquare(line, code & 0x3F);
+            }
+
+            line.append('"');
+        }
+
+        line.append('}');
+    }
+
+    private static void appendSquare(StringBuilder line, int square)
+    {
+        line.append((char)('a' + square%8)).append(8 - square/8);
+    }
+}
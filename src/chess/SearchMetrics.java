@@ -0,0 +1,403 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+Search statistics of a computer player, readable while it searches. Each search thread counts in plain fields of its own and adds them here every few hundred nodes,
+so the counters are striped LongAdders which threads can add to without contending. The statistics are available as a snapshot or through JMX.
+*/
+public class SearchMetrics implements SearchMetricsMBean {
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder nodes = new LongAdder();
+    private final LongAdder leafNodes = new LongAdder();
+    private final LongAdder transpositionProbes = new LongAdder();
+    private final LongAdder transpositionHits = new LongAdder();
+    private final LongAdder transpositionCollisions = new LongAdder();
+    private final LongAdder transpositionEvictions = new LongAdder();
+    private final LongAdder cutoffs = new LongAdder();
+    private final LongAdder firstMoveCutoffs = new LongAdder();
+    private final LongAdder multiPvNodes = new LongAdder(); //Nodes spent on the extra passes of multi-PV mode
+    private final LongAdder pawnHashProbes = new LongAdder();
+    private final LongAdder pawnHashHits = new LongAdder();
+    private final LongAdder evalCacheProbes = new LongAdder();
+    private final LongAdder evalCacheHits = new LongAdder();
+    private final LongAdder lazyEvalExits = new LongAdder();
+
+    private volatile long searchStartTime; //System.nanoTime() when the current or most recent search started
+    private volatile long searchEndTime; //Zero while a search is running
+    private volatile long searchStartNodes; //Node count when the search started
+    private volatile long iterationStartNodes; //Node count when the current iteration started
+    private volatile long searchMultiPvNodes; //Nodes of the current search spent on multi-PV passes, which the search node count and branching factor leave out
+    private volatile long previousIterationNodes;
+    private volatile int lastDepth;
+    private volatile long lastIterationTime;
+    private volatile double effectiveBranchingFactor;
+    private volatile int transpositionEntries;
+
+    //Immutable copy of the metrics at one moment
+    public static class Snapshot
+    {
+        public final long searches;
+        public final long nodes;
+        public final long leafNodes;
+        public final long searchNodes;
+        public final long nodesPerSecond;
+        public final long transpositionProbes;
+        public final long transpositionHits;
+        public final long transpositionCollisions;
+        public final long transpositionEvictions;
+        public final int transpositionEntries;
+        public final long cutoffs;
+        public final double firstMoveCutoffRate;
+        public final double effectiveBranchingFactor;
+        public final int lastDepth;
+        public final long lastIterationTime;
+        public final double multiPvOverhead;
+        public final double pawnHashHitRate;
+        public final double evalCacheHitRate;
+        public final double lazyEvalRate;
+
+        private Snapshot(SearchMetrics metrics)
+        {
+            searches = metrics.getSearches();
+            nodes = metrics.getNodes();
+            leafNodes = metrics.getLeafNodes();
+            searchNodes = metrics.getSearchNodes();
+            nodesPerSecond = metrics.getNodesPerSecond();
+            transpositionProbes = metrics.getTranspositionProbes();
+            transpositionHits = metrics.getTranspositionHits();
+            transpositionCollisions = metrics.getTranspositionCollisions();
+            transpositionEvictions = metrics.getTranspositionEvictions();
+            transpositionEntries = metrics.getTranspositionEntries();
+            cutoffs = metrics.getCutoffs();
+            firstMoveCutoffRate = metrics.getFirstMoveCutoffRate();
+            effectiveBranchingFactor = metrics.getEffectiveBranchingFactor();
+            lastDepth = metrics.getLastDepth();
+            lastIterationTime = metrics.getLastIterationTime();
+            multiPvOverhead = metrics.getMultiPvOverhead();
+            pawnHashHitRate = metrics.getPawnHashHitRate();
+            evalCacheHitRate = metrics.getEvalCacheHitRate();
+            lazyEvalRate = metrics.getLazyEvalRate();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Search nodes: " + searchNodes + "; NPS: " + nodesPerSecond + "; Total nodes: " + nodes + "; Leaves: " + leafNodes
+                    + "; TT probes: " + transpositionProbes + "; TT hits: " + transpositionHits + "; TT collisions: " + transpositionCollisions + "; TT evictions: " + transpositionEvictions + "; TT entries: " + transpositionEntries
+                    + "; Cutoffs: " + cutoffs + "; First move cutoffs: " + String.format("%.3f", firstMoveCutoffRate) + "; EBF: " + String.format("%.2f", effectiveBranchingFactor)
+                    + "; Depth: " + lastDepth + "; Iteration time: " + lastIterationTime + "; Multi-PV overhead: " + String.format("%.2f", multiPvOverhead)
+                    + "; Pawn hash hit rate: " + String.format("%.3f", pawnHashHitRate) + "; Eval cache hit rate: " + String.format("%.3f", evalCacheHitRate)
+                    + "; Lazy eval rate: " + String.format("%.3f", lazyEvalRate);
+        }
+    }
+
+    /**
+     * Adds the counts of a search thread since it last reported
+     * @param nodeCount Interior nodes and leaves
+     * @param leafCount Leaves
+     * @param probes Transposition table probes
+     * @param hits Transposition table hits
+     * @param collisions Transposition table collisions
+     * @param evictions Transposition table entries overwritten by a different position
+     * @param cutoffCount Beta cutoffs
+     * @param firstMoveCutoffCount Beta cutoffs caused by the first move searched
+     */
+    public void add(long nodeCount, long leafCount, long probes, long hits, long collisions, long evictions, long cutoffCount, long firstMoveCutoffCount)
+    {
+        nodes.add(nodeCount);
+        leafNodes.add(leafCount);
+        transpositionProbes.add(probes);
+        transpositionHits.add(hits);
+        transpositionCollisions.add(collisions);
+        transpositionEvictions.add(evictions);
+        cutoffs.add(cutoffCount);
+        firstMoveCutoffs.add(firstMoveCutoffCount);
+    }
+
+    //Moves nodes already added by the searching thread out of the current search's count and iteration, so that they count only towards the totals. Called by the thread which started the search.
+    public void addMultiPvNodes(long nodeCount)
+    {
+        multiPvNodes.add(nodeCount);
+        searchMultiPvNodes += nodeCount;
+        iterationStartNodes += nodeCount;
+    }
+
+    public void addPawnHashCounts(long probes, long hits)
+    {
+        pawnHashProbes.add(probes);
+        pawnHashHits.add(hits);
+    }
+
+    public void addEvalCacheCounts(long probes, long hits)
+    {
+        evalCacheProbes.add(probes);
+        evalCacheHits.add(hits);
+    }
+
+    public void addLazyEvalExits(long exits)
+    {
+        lazyEvalExits.add(exits);
+    }
+
+    public void searchStarted()
+    {
+        searches.increment();
+        searchStartNodes = nodes.sum();
+        iterationStartNodes = searchStartNodes;
+        searchMultiPvNodes = 0;
+        previousIterationNodes = 0;
+        effectiveBranchingFactor = 0;
+        searchEndTime = 0;
+        searchStartTime = System.nanoTime();
+    }
+
+    //Records a completed iteration. The calling thread must have added its counts first.
+    public void iterationCompleted(int depth, long iterationTime)
+    {
+        long total = nodes.sum();
+        long iterationNodes = total-iterationStartNodes;
+
+        if (previousIterationNodes > 0)
+            effectiveBranchingFactor = (double)iterationNodes/previousIterationNodes;
+
+        previousIterationNodes = iterationNodes;
+        iterationStartNodes = total;
+        lastDepth = depth;
+        lastIterationTime = iterationTime;
+    }
+
+    public void searchFinished()
+    {
+        searchEndTime = System.nanoTime();
+    }
+
+    public void setTranspositionEntries(int entries)
+    {
+        transpositionEntries = entries;
+    }
+
+    public Snapshot snapshot()
+    {
+        return new Snapshot(this);
+    }
+
+    //Registers the metrics with the platform MBean server as chess:type=SearchMetrics,name=<name>, replacing any earlier registration under that name
+    public void register(String playerName)
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("chess:type=SearchMetrics,name=" + playerName);
+
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+
+            server.registerMBean(this, name);
+        } catch (JMException ex) {
+            Logger.getLogger(SearchMetrics.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    @Override
+    public long getSearches()
+    {
+        return searches.sum();
+    }
+
+    @Override
+    public long getNodes()
+    {
+        return nodes.sum();
+    }
+
+    @Override
+    public long getLeafNodes()
+    {
+        return leafNodes.sum();
+    }
+
+    @Override
+    public long getSearchNodes()
+    {
+        return nodes.sum()-searchStartNodes-searchMultiPvNodes;
+    }
+
+    @Override
+    public long getNodesPerSecond()
+    {
+        long end = searchEndTime == 0 ? System.nanoTime() : searchEndTime;
+        long time = Math.max(end-searchStartTime, 1);
+
+        return (nodes.sum()-searchStartNodes)*1000000000L/time; //Multi-PV passes included, as a measure of speed
+    }
+
+    @Override
+    public long getTranspositionProbes()
+    {
+        return transpositionProbes.sum();
+    }
+
+    @Override
+    public long getTranspositionHits()
+    {
+        return transpositionHits.sum();
+    }
+
+    @Override
+    public long getTranspositionCollisions()
+    {
+        return transpositionCollisions.sum();
+    }
+
+    @Override
+    public long getTranspositionEvictions()
+    {
+        return transpositionEvictions.sum();
+    }
+
+    @Override
+    public double getTranspositionHitRate()
+    {
+        long probes = transpositionProbes.sum();
+        return probes == 0 ? 0 : (double)transpositionHits.sum()/probes;
+    }
+
+    @Override
+    public int getTranspositionEntries()
+    {
+        return transpositionEntries;
+    }
+
+    @Override
+    public long getCutoffs()
+    {
+        return cutoffs.sum();
+    }
+
+    @Override
+    public double getFirstMoveCutoffRate()
+    {
+        long cutoffCount = cutoffs.sum();
+        return cutoffCount == 0 ? 0 : (double)firstMoveCutoffs.sum()/cutoffCount;
+    }
+
+    @Override
+    public double getEffectiveBranchingFactor()
+    {
+        return effectiveBranchingFactor;
+    }
+
+    @Override
+    public int getLastDepth()
+    {
+        return lastDepth;
+    }
+
+    @Override
+    public long getLastIterationTime()
+    {
+        return lastIterationTime;
+    }
+
+    @Override
+    public long getMultiPvNodes()
+    {
+        return multiPvNodes.sum();
+    }
+
+    @Override
+    public double getMultiPvOverhead()
+    {
+        long extra = multiPvNodes.sum();
+        long single = nodes.sum()-extra;
+        return single == 0 ? 0 : (double)extra/single;
+    }
+
+    @Override
+    public long getPawnHashProbes()
+    {
+        return pawnHashProbes.sum();
+    }
+
+    @Override
+    public long getPawnHashHits()
+    {
+        return pawnHashHits.sum();
+    }
+
+    @Override
+    public double getPawnHashHitRate()
+    {
+        long probes = pawnHashProbes.sum();
+        return probes == 0 ? 0 : (double)pawnHashHits.sum()/probes;
+    }
+
+    @Override
+    public long getEvalCacheProbes()
+    {
+        return evalCacheProbes.sum();
+    }
+
+    @Override
+    public long getEvalCacheHits()
+    {
+        return evalCacheHits.sum();
+    }
+
+    @Override
+    public double getEvalCacheHitRate()
+    {
+        long probes = evalCacheProbes.sum();
+        return probes == 0 ? 0 : (double)evalCacheHits.sum()/probes;
+    }
+
+    @Override
+    public long getLazyEvalExits()
+    {
+        return lazyEvalExits.sum();
+    }
+
+    @Override
+    public double getLazyEvalRate()
+    {
+        long leaves = leafNodes.sum();
+        return leaves == 0 ? 0 : (double)lazyEvalExits.sum()/leaves;
+    }
+
+    @Override
+    public void reset()
+    {
+        searches.reset();
+        nodes.reset();
+        leafNodes.reset();
+        transpositionProbes.reset();
+        transpositionHits.reset();
+        transpositionCollisions.reset();
+        transpositionEvictions.reset();
+        cutoffs.reset();
+        firstMoveCutoffs.reset();
+        multiPvNodes.reset();
+        pawnHashProbes.reset();
+        pawnHashHits.reset();
+        evalCacheProbes.reset();
+        evalCacheHits.reset();
+        lazyEvalExits.reset();
+        searchStartNodes = 0;
+        iterationStartNodes = 0;
+        previousIterationNodes = 0;
+        effectiveBranchingFactor = 0;
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+//Management interface of SearchMetrics. Counters are totals since the player was created or last reset. The remaining values describe the current or most recent search.
+public interface SearchMetricsMBean {
+    public long getSearches();
+    public long getNodes(); //Interior nodes and leaves
+    public long getLeafNodes(); //Positions scored by the static evaluation. There is no quiescence search, so these stand in for qnodes.
+    public long getSearchNodes(); //Nodes of the current or most recent search, not counting multi-PV passes
+    public long getNodesPerSecond(); //Of the current or most recent search
+    public long getTranspositionProbes();
+    public long getTranspositionHits();
+    public long getTranspositionCollisions(); //Probes which found the slot occupied by a different position
+    public long getTranspositionEvictions(); //Stores which overwrote an entry for a different position
+    public double getTranspositionHitRate();
+    public int getTranspositionEntries();
+    public long getCutoffs();
+    public double getFirstMoveCutoffRate(); //Fraction of cutoffs caused by the first move searched
+    public double getEffectiveBranchingFactor(); //Ratio between the node counts of the last two iterations
+    public int getLastDepth(); //Depth of the last completed iteration
+    public long getLastIterationTime(); //Milliseconds
+    public long getMultiPvNodes(); //Nodes spent finding the additional lines in multi-PV mode
+    public double getMultiPvOverhead(); //Multi-PV nodes as a fraction of the nodes a single-PV search would have needed
+    public long getPawnHashProbes(); //One for each leaf evaluated
+    public long getPawnHashHits();
+    public double getPawnHashHitRate();
+    public long getEvalCacheProbes(); //One for each leaf, before the pawn hash is probed
+    public long getEvalCacheHits();
+    public double getEvalCacheHitRate();
+    public long getLazyEvalExits(); //Leaves scored by material and piece-square values alone, being far outside the window
+    public double getLazyEvalRate(); //Lazy exits as a fraction of leaves
+    public void reset();
+}
@@ -0,0 +1,200 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+Generates training data by self-play, without the game window: java -Djava.awt.headless=true --add-modules jdk.incubator.vector -cp <classes> chess.SelfPlay <output> [games] [nodes] [threads] [random plies]
+
+Each thread plays whole games on its own ComputerPlayer, so threads share nothing but the output file and scale with the cores. Every move is a search to a fixed number of nodes (default 20000),
+which keeps the games reproducible whatever the speed of the machine. Games open with a number of random moves (default 8), chosen by a generator seeded with the game's number, so that they differ.
+A game ends in checkmate or stalemate, by threefold repetition, the fifty-move rule or insufficient material, or as a draw after MAX_PLIES.
+
+The positions after the random opening are written to the output (see TrainingData) with the search's score and the result of the game, except those which are not quiet: when the side to move is
+in check, or the move found is a capture or promotion. Without a quiescence search, the static evaluation of such positions says little about them. Mate scores are left out as well.
+The default number of games is 1000, and the default number of threads one per core.
+*/
+public class SelfPlay {
+    private static final int MAX_PLIES = 400; //Games still going after this many plies are scored as draws
+    private static final int REPORT_INTERVAL = 100; //Games between progress reports
+
+    private final TrainingData.Writer writer;
+    private final long nodes;
+    private final int randomPlies;
+    private final int games;
+    private final AtomicInteger nextGame = new AtomicInteger();
+    private final AtomicInteger finishedGames = new AtomicInteger();
+    private final AtomicLong plies = new AtomicLong();
+    private final int[] results = new int[3]; //Games won by black, drawn and won by white
+    private volatile Throwable failure; //First error of any worker, which stops them all
+
+    private SelfPlay(TrainingData.Writer writer, int games, long nodes, int randomPlies)
+    {
+        this.writer = writer;
+        this.games = games;
+        this.nodes = nodes;
+        this.randomPlies = randomPlies;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: chess.SelfPlay <output> [games] [nodes] [threads] [random plies]");
+            return;
+        }
+
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long nodes = args.length > 2 ? Long.parseLong(args[2]) : 20000;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        int randomPlies = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+
+        SelfPlay selfPlay;
+        long startTime = System.nanoTime();
+
+        try (TrainingData.Writer writer = new TrainingData.Writer(Paths.get(args[0])))
+        {
+            selfPlay = new SelfPlay(writer, games, nodes, randomPlies);
+            List<Thread> workers = new ArrayList<>();
+
+            System.out.println("Playing " + games + " games at " + nodes + " nodes a move on " + threads + " threads");
+
+            for (int i = 0; i < threads; i++)
+            {
+                Thread worker = new Thread(selfPlay::play, "Self-play " + i);
+                worker.start();
+                workers.add(worker);
+            }
+
+            for (Thread worker : workers)
+                worker.join();
+        }
+
+        if (selfPlay.failure != null)
+        {
+            Logger.getLogger(SelfPlay.class.getName()).log(Level.SEVERE, "Self-play failed", selfPlay.failure);
+            System.exit(1);
+        }
+
+        //The writer is closed, so its counts include the last block
+        TrainingData.Writer writer = selfPlay.writer;
+        long millis = Math.max((System.nanoTime()-startTime)/1000000, 1);
+
+        System.out.println("Played " + selfPlay.finishedGames.get() + " games (white won " + selfPlay.results[2] + ", drawn " + selfPlay.results[1] + ", black won " + selfPlay.results[0] + ") in " + millis + " ms");
+        System.out.println("Wrote " + writer.getRecords() + " positions in " + writer.getBytes() + " bytes, " + writer.getRecords()*1000/millis + " positions/s, "
+                + selfPlay.plies.get()*1000/millis + " moves/s");
+    }
+
+    //Plays games until all have been started. Run by each worker thread.
+    private void play()
+    {
+        ComputerPlayer player = new ComputerPlayer(true, Thread.currentThread().getName()); //Named after the worker, so each registers its own metrics
+
+        for (int game = nextGame.getAndIncrement(); game < games && failure == null; game = nextGame.getAndIncrement())
+        {
+            try {
+                playGame(player, game);
+            } catch (Throwable ex) {
+                failure = ex;
+            }
+        }
+    }
+
+    private void playGame(ComputerPlayer player, int game) throws IOException
+    {
+        Random random = new Random(game);
+        char[][] position = Board.cloneBoard(Board.STARTING_POSITION);
+        boolean isWhite = true;
+        RepetitionHistory history = new RepetitionHistory(MAX_PLIES+1);
+        List<char[][]> positions = new ArrayList<>();
+        List<Integer> scores = new ArrayList<>();
+        List<Boolean> sides = new ArrayList<>();
+        int result = 1; //Half points for white, a draw unless a side is mated
+        int ply;
+
+        Evaluation.initialize(position);
+        history.push(Board.calculateZobrist(position), true);
+        player.clearTranspositionTable();
+
+        for (ply = 0; ply < MAX_PLIES; ply++)
+        {
+            Move move;
+
+            if (ply < randomPlies)
+            {
+                LinkedList<Move> moves = Board.getLegalMoves(position, isWhite, false);
+                move = moves.isEmpty() ? null : moves.get(random.nextInt(moves.size()));
+            }
+            else
+                move = player.search(position, isWhite, SearchLimits.nodes(nodes), history);
+
+            if (move == null) //Checkmate or stalemate
+            {
+                if (Board.isInCheck(position))
+                    result = isWhite ? 0 : 2;
+
+                break;
+            }
+
+            boolean record = ply >= randomPlies && !Board.isInCheck(position) && move.getCapturedPiece() == ' ' && !move.isEnPassant()
+                    && Math.abs(move.getValue()) < ComputerPlayer.MATE_SCORE-1000;
+            char[][] before = record ? Board.cloneBoard(position) : null;
+
+            Board.makeMove(position, move, false, 0);
+
+            if (record && !move.isPromotion())
+            {
+                positions.add(before);
+                scores.add(move.getValue());
+                sides.add(isWhite);
+            }
+
+            isWhite = !isWhite;
+
+            long zobrist = Board.calculateZobrist(position);
+            boolean irreversible = Board.isIrreversible(position, move);
+            int occurrences = history.countRepetitions(zobrist, irreversible)+1;
+
+            history.push(zobrist, irreversible);
+
+            if (occurrences >= 3 || Board.getHalfmoveClock(position) >= 100 || Board.isInsufficientMaterial(position))
+            {
+                if (!Board.checkGameOver(position, isWhite) || !Board.isInCheck(position)) //Checkmate takes precedence over the draws
+                {
+                    ply++;
+                    break;
+                }
+            }
+        }
+
+        for (int i = 0; i < positions.size(); i++)
+            writer.add(positions.get(i), sides.get(i), scores.get(i), result);
+
+        plies.addAndGet(ply);
+
+        synchronized (results)
+        {
+            results[result]++;
+        }
+
+        int finished = finishedGames.incrementAndGet();
+
+        if (finished % REPORT_INTERVAL == 0)
+            System.out.println(finished + " games, " + writer.getRecords() + " positions");
+    }
+}
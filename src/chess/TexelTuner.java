@@ -0,0 +1,308 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+Tunes the evaluation parameters to a set of positions from played games, by Texel's method: java -cp <classes> chess.TexelTuner <positions> [output] [threads] [passes]
+
+The positions file holds one position per line, in Forsyth-Edwards Notation followed by the result of the game it was taken from, from white's side: 1-0, 0-1 or 1/2-1/2, or 1.0, 0.0 or 0.5.
+The result may be wrapped in brackets or quotes, and lines starting with # are skipped. Training data files written by SelfPlay are read as well, using the result of each record.
+An evaluation q is turned into an expected result by the sigmoid 1/(1+10^(-K*q/400)), and the tuner minimizes the mean squared difference between the expected and the actual results.
+K is first fitted to the default parameters, then each parameter in turn is moved a step up or down while that lowers the error, until a whole pass changes nothing or the passes run out.
+The parameters are written to the output file (default tuned.properties) after each pass, in the format read by EvaluationParameters.load.
+
+Positions are scored by the static evaluation alone, as there is no quiescence search to resolve captures: the positions should be quiet ones, with no capture or check pending.
+They are stored packed, four bits a square, so that millions fit in memory, and unpacked into a board when evaluated. The error is summed over slices of the positions in parallel on a fork-join pool.
+*/
+public class TexelTuner {
+    private static final String PIECES = " pnbrqkPNBRQK"; //Square codes of the packed positions
+    private static final int LONGS_PER_POSITION = 4; //Sixteen squares per long
+    private static final int SLICE = 2048; //Positions a task scores without splitting further
+
+    private long[] squares = new long[1024*LONGS_PER_POSITION];
+    private byte[] castling = new byte[1024]; //Meta entries 3 to 5 of the board, two bits each
+    private byte[] results = new byte[1024]; //Result of each position's game in half points for white: 0, 1 or 2
+    private int count;
+
+    private final ForkJoinPool pool;
+
+    public TexelTuner(int threads)
+    {
+        pool = new ForkJoinPool(threads);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: chess.TexelTuner <positions> [output] [threads] [passes]");
+            return;
+        }
+
+        String output = args.length > 1 ? args[1] : "tuned.properties";
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int passes = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+        TexelTuner tuner = new TexelTuner(threads);
+        long startTime = System.nanoTime();
+        int skipped = tuner.load(args[0]);
+
+        System.out.println("Loaded " + tuner.count + " positions (" + skipped + " lines skipped) in " + (System.nanoTime()-startTime)/1000000 + " ms");
+
+        if (tuner.count == 0)
+        {
+            tuner.pool.shutdown();
+            return;
+        }
+
+        EvaluationParameters parameters = Evaluation.getParameters();
+        double k = tuner.fitK();
+
+        System.out.printf("K = %.3f, error %.6f%n", k, tuner.error(k));
+        tuner.tune(parameters, k, passes, output);
+        tuner.pool.shutdown();
+    }
+
+    //Reads the positions of a file, returning the number of lines which could not be read
+    public int load(String path) throws IOException
+    {
+        int skipped = 0;
+
+        if (TrainingData.isTrainingData(Paths.get(path)))
+        {
+            try (TrainingData.Reader in = new TrainingData.Reader(Paths.get(path)))
+            {
+                char[][] position = Board.cloneBoard(Board.STARTING_POSITION);
+
+                while (in.next())
+                {
+                    in.getPosition(position);
+                    add(position, in.getResult());
+                }
+            }
+
+            return skipped;
+        }
+
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(path)))
+        {
+            String line;
+
+            while ((line = in.readLine()) != null)
+            {
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                int split = line.lastIndexOf(' ');
+                int result = split > 0 ? parseResult(line.substring(split+1)) : -1;
+
+                if (result < 0)
+                {
+                    skipped++;
+                    continue;
+                }
+
+                try {
+                    add(Board.fromFen(line.substring(0, split)), result);
+                } catch (IllegalArgumentException ex) {
+                    skipped++;
+                }
+            }
+        }
+
+        return skipped;
+    }
+
+    //Half points for white of a result, or -1 if it is not one
+    private static int parseResult(String result)
+    {
+        switch (result.replaceAll("[\\[\\]\";]", ""))
+        {
+            case "1-0": case "1.0": case "1":
+                return 2;
+            case "1/2-1/2": case "0.5":
+                return 1;
+            case "0-1": case "0.0": case "0":
+                return 0;
+            default:
+                return -1;
+        }
+    }
+
+    private void add(char[][] position, int result)
+    {
+        if (count == results.length)
+        {
+            squares = Arrays.copyOf(squares, squares.length*2);
+            castling = Arrays.copyOf(castling, castling.length*2);
+            results = Arrays.copyOf(results, results.length*2);
+        }
+
+        for (int square = 0; square < 64; square++)
+            squares[count*LONGS_PER_POSITION + (square >> 4)] |= (long)PIECES.indexOf(position[square >> 3][square & 7]) << ((square & 15)*4);
+
+        castling[count] = (byte)((position[8][3]-'0') | (position[8][4]-'0') << 2 | (position[8][5]-'0') << 4);
+        results[count] = (byte)result;
+        count++;
+    }
+
+    //Unpacks a position onto a board, with the sums of the evaluation parameters in use
+    private void unpack(int index, char[][] position)
+    {
+        for (int square = 0; square < 64; square++)
+            position[square >> 3][square & 7] = PIECES.charAt((int)(squares[index*LONGS_PER_POSITION + (square >> 4)] >>> ((square & 15)*4)) & 15);
+
+        position[8][0] = ' ';
+        position[8][1] = '0';
+        position[8][2] = '0';
+        position[8][3] = (char)('0' + (castling[index] & 3));
+        position[8][4] = (char)('0' + (castling[index] >> 2 & 3));
+        position[8][5] = (char)('0' + (castling[index] >> 4 & 3));
+        Evaluation.initialize(position);
+    }
+
+    //Mean squared difference between the results and those expected from the evaluations with the parameters in use
+    public double error(double k)
+    {
+        return pool.invoke(new ErrorTask(k, 0, count))/count;
+    }
+
+    //Finds the K with the lowest error, narrowing the step tenfold each round
+    public double fitK()
+    {
+        double best = 1;
+        double bestError = error(best);
+
+        for (int digits = 1; digits <= 3; digits++)
+        {
+            double step = Math.pow(10, -digits);
+
+            boolean improved = true;
+
+            while (improved)
+            {
+                improved = false;
+
+                for (double k : new double[]{best-step, best+step})
+                {
+                    double e = k > 0 ? error(k) : Double.MAX_VALUE;
+
+                    if (e < bestError)
+                    {
+                        best = k;
+                        bestError = e;
+                        improved = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        return best;
+    }
+
+    //Moves each parameter a step at a time while that lowers the error, saving the parameters after each pass
+    public void tune(EvaluationParameters parameters, double k, int passes, String output) throws IOException
+    {
+        double bestError = error(k);
+
+        for (int pass = 1; pass <= passes; pass++)
+        {
+            long startTime = System.nanoTime();
+            int changed = 0;
+
+            for (int i = 0; i < EvaluationParameters.count(); i++)
+            {
+                int value = parameters.get(i);
+                int step = EvaluationParameters.getName(i).endsWith("_SCALE") ? 5 : 1; //Percentages move further for the same effect
+
+                for (int direction : new int[]{step, -step})
+                {
+                    parameters.set(i, value+direction);
+                    Evaluation.setParameters(parameters);
+                    double e = error(k);
+
+                    if (e < bestError)
+                    {
+                        bestError = e;
+                        changed++;
+                        break;
+                    }
+
+                    parameters.set(i, value);
+                }
+            }
+
+            Evaluation.setParameters(parameters);
+            parameters.save(Paths.get(output));
+            System.out.printf("Pass %d: %d parameters changed, error %.6f, %d ms%n", pass, changed, bestError, (System.nanoTime()-startTime)/1000000);
+
+            if (changed == 0)
+                break;
+        }
+
+        System.out.println(parameters);
+    }
+
+    //Sum of the squared errors of a range of positions, split in halves until small enough to score on one thread
+    private class ErrorTask extends RecursiveTask<Double>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final double k;
+        private final int from, to;
+
+        ErrorTask(double k, int from, int to)
+        {
+            this.k = k;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute()
+        {
+            if (to-from > SLICE)
+            {
+                int middle = (from+to) >>> 1;
+                ErrorTask left = new ErrorTask(k, from, middle);
+
+                left.fork();
+                double right = new ErrorTask(k, middle, to).compute();
+
+                return right + left.join();
+            }
+
+            char[][] position = new char[9][8];
+            position[8] = new char[Board.STARTING_POSITION[8].length];
+            double sum = 0;
+
+            for (int i = from; i < to; i++)
+            {
+                unpack(i, position);
+
+                double expected = 1/(1 + Math.pow(10, -k*ComputerPlayer.evaluateUncached(position)/400));
+                double difference = results[i]/2.0 - expected;
+
+                sum += difference*difference;
+            }
+
+            return sum;
+        }
+    }
+}
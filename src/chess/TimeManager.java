@@ -0,0 +1,179 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+/*
+Decides how long the computer thinks about a move. Two deadlines are set when a search starts:
+The soft limit is the time the computer aims to spend. No new iteration of the iterative deepening search is started if it is not expected to finish before the soft limit.
+The hard limit is never exceeded. If it is reached, the search is aborted and the best move of the last completed iteration is played.
+The soft limit is stretched while the search is unstable (the best move keeps changing or the score is dropping) and shortened once the best move has settled.
+While pondering, the search runs without limits. On a ponder hit the limits are set as for a new move, measured from the hit, while the iterations already measured are kept.
+*/
+public class TimeManager {
+    private static final int MOVES_TO_GO = 35; //Number of moves the remaining time is expected to last at the start of the game
+    private static final int MIN_MOVES_TO_GO = 15; //The remaining time is always expected to last at least this many more moves
+    private static final double INCREMENT_USAGE = 0.8; //Fraction of the increment spent on each move. The remainder builds a small reserve.
+    private static final double HARD_LIMIT_MULT = 3; //Hard limit as a multiple of the target time
+    private static final double MAX_TIME_FRACTION = 0.25; //The hard limit never exceeds this fraction of the remaining time
+    private static final int SAFETY_MARGIN = 50; //Time in milliseconds kept in reserve for moving and clock latency
+    private static final double DEFAULT_BRANCHING_FACTOR = 5; //Expected growth of each iteration before any has been measured
+    private static final int MIN_MEASURED_TIME = 5; //Iterations faster than this (in milliseconds) are too noisy to measure the branching factor from
+
+    //The limits may be changed by another thread on a ponder hit while the search is running
+    private volatile long startTime; //System.nanoTime() when the search started
+    private volatile long limitOffset; //Elapsed time from which the limits are measured. Non-zero after a ponder hit.
+    private volatile long softLimit; //Milliseconds
+    private volatile long hardLimit; //Milliseconds
+
+    private double branchingFactor; //Measured ratio between the durations of consecutive iterations
+    private long lastIterationTime; //Duration of the last completed iteration in milliseconds
+    private long lastIterationEnd; //Elapsed time when the last iteration completed
+
+    private double instability; //Decaying count of best move changes between iterations
+    private double stabilityScale; //Multiplier of the soft limit based on the stability of the search
+
+    public TimeManager()
+    {
+        startTime = System.nanoTime();
+        softLimit = Long.MAX_VALUE;
+        hardLimit = Long.MAX_VALUE;
+    }
+
+    /**
+     * Starts timing a new search
+     * @param timeLeft Time remaining on the computer's clock in milliseconds
+     * @param increment Time added to the clock after every move in milliseconds
+     * @param delay Time at the start of every move before the clock begins running, in milliseconds
+     * @param movesPlayed Number of moves the computer has already played
+     */
+    public void start(double timeLeft, int increment, int delay, int movesPlayed)
+    {
+        startTime = System.nanoTime();
+        limitOffset = 0;
+        setLimits(timeLeft, increment, delay, movesPlayed);
+        resetIterations();
+    }
+
+    //Converts a ponder search into a timed search for the computer's own move, starting the clock from now. Takes the same arguments as start.
+    public void ponderHit(double timeLeft, int increment, int delay, int movesPlayed)
+    {
+        softLimit = Long.MAX_VALUE;
+        hardLimit = Long.MAX_VALUE;
+        limitOffset = getElapsed();
+        setLimits(timeLeft, increment, delay, movesPlayed);
+    }
+
+    private void setLimits(double timeLeft, int increment, int delay, int movesPlayed)
+    {
+        int movesToGo = Math.max(MOVES_TO_GO-movesPlayed, MIN_MOVES_TO_GO);
+
+        //The delay is spent before the clock runs, so it is free. The increment arrives after the move, so it can only be spent if enough time remains to bridge it.
+        double usable = Math.max(timeLeft-SAFETY_MARGIN, 0);
+        double target = usable/movesToGo + Math.min(increment*INCREMENT_USAGE, usable/2) + delay;
+        double maximum = Math.min(usable*MAX_TIME_FRACTION + delay, usable + delay);
+
+        long hard = (long)Math.min(target*HARD_LIMIT_MULT, maximum);
+        softLimit = (long)Math.min(target, hard);
+        hardLimit = hard;
+    }
+
+    //Starts timing a search limited to a fixed amount of time, or with no limit at all if time is negative
+    public void startFixed(long time)
+    {
+        startTime = System.nanoTime();
+        limitOffset = 0;
+        softLimit = time < 0 ? Long.MAX_VALUE : time;
+        hardLimit = softLimit;
+
+        resetIterations();
+    }
+
+    private void resetIterations()
+    {
+        branchingFactor = DEFAULT_BRANCHING_FACTOR;
+        lastIterationTime = 0;
+        lastIterationEnd = 0;
+        instability = 0;
+        stabilityScale = 1;
+    }
+
+    /**
+     * Records a completed iteration, updating the measured branching factor and the stability of the search
+     * @param bestMoveChanged Whether the iteration chose a different best move than the previous one
+     * @param scoreDrop How much the score fell compared to an earlier iteration, from the computer's point of view, in centipawns
+     * @param stableIterations Number of consecutive iterations which have agreed on the best move
+     */
+    public void iterationComplete(boolean bestMoveChanged, int scoreDrop, int stableIterations)
+    {
+        long elapsed = getElapsed();
+        long iterationTime = elapsed-lastIterationEnd;
+
+        if (lastIterationTime >= MIN_MEASURED_TIME && iterationTime >= MIN_MEASURED_TIME)
+        {
+            double measured = (double)iterationTime/lastIterationTime;
+            branchingFactor = (branchingFactor + Math.max(1.5, Math.min(measured, 15)))/2; //Smooth the measurement, since odd and even plies differ
+        }
+
+        lastIterationTime = iterationTime;
+        lastIterationEnd = elapsed;
+
+        instability = instability/2 + (bestMoveChanged ? 1 : 0);
+
+        stabilityScale = 1 + 0.6*instability;
+
+        if (scoreDrop >= 50)
+            stabilityScale *= 1.5;
+        else if (scoreDrop >= 20)
+            stabilityScale *= 1.2;
+        else if (stableIterations >= 6)
+            stabilityScale *= 0.5;
+        else if (stableIterations >= 3)
+            stabilityScale *= 0.75;
+    }
+
+    //Returns true if the next iteration is expected to complete before the soft limit, adjusted for the stability of the search
+    public boolean shouldStartIteration()
+    {
+        long elapsed = getElapsed()-limitOffset;
+        double predicted = Math.max(lastIterationTime, 1)*branchingFactor;
+        double limit = Math.min(softLimit*stabilityScale, hardLimit);
+
+        return elapsed+predicted <= limit;
+    }
+
+    public boolean softLimitReached()
+    {
+        return getElapsed()-limitOffset >= Math.min(softLimit*stabilityScale, hardLimit);
+    }
+
+    public boolean hardLimitReached()
+    {
+        return getElapsed()-limitOffset >= hardLimit;
+    }
+
+    //Time in milliseconds since the search started
+    public long getElapsed()
+    {
+        return (System.nanoTime()-startTime)/1000000;
+    }
+
+    public long getSoftLimit()
+    {
+        return softLimit;
+    }
+
+    public long getHardLimit()
+    {
+        return hardLimit;
+    }
+
+    public double getBranchingFactor()
+    {
+        return branchingFactor;
+    }
+}
@@ -0,0 +1,295 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+Files of labelled positions for training and tuning evaluations, as written by SelfPlay.
+
+Each record is RECORD_SIZE bytes: the 64 squares at four bits each (two squares a byte, the lower first, codes as in PIECES), a byte of flags (bit 0 set if white has the move, then the meta
+entries 3 to 5 of the board, two bits each), the search's score in centipawns from white's point of view as a big-endian short, and the game's result in half points for white (0, 1 or 2).
+Records are gathered into blocks of up to BLOCK_RECORDS, each compressed on its own with Deflater. After a header of MAGIC and VERSION, the file is a sequence of blocks, each an int count
+of records, an int compressed length and the compressed bytes. Positions from the same game share most of their squares, so a block compresses well, and a reader only needs to hold one block inflated.
+The reader maps the file into memory and inflates straight from the mapping, so files are limited to 2 GB; larger sets are written as several files.
+*/
+public class TrainingData {
+    private static final int MAGIC = 0x43484454; //"CHDT"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 36;
+    private static final int BLOCK_RECORDS = 4096;
+    private static final String PIECES = " pnbrqkPNBRQK"; //Piece of each square code
+
+    private TrainingData() {} //Not instantiated
+
+    //Returns whether a file starts as a training data file does
+    public static boolean isTrainingData(Path path) throws IOException
+    {
+        try (InputStream in = Files.newInputStream(path))
+        {
+            byte[] header = new byte[4];
+
+            return in.read(header) == 4 && ByteBuffer.wrap(header).getInt() == MAGIC;
+        }
+    }
+
+    //Writes records into blocks. Safe to share between threads: each call to add writes a whole record.
+    public static class Writer implements Closeable
+    {
+        private final OutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        private final byte[] block = new byte[BLOCK_RECORDS*RECORD_SIZE];
+        private byte[] compressed = new byte[BLOCK_RECORDS*RECORD_SIZE + 1024];
+        private int records; //Records in the current block
+        private long written; //Records in the file
+        private long bytes; //Bytes written to the file
+
+        public Writer(Path path) throws IOException
+        {
+            out = Files.newOutputStream(path);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+            out.write(header.array());
+            bytes = HEADER_SIZE;
+        }
+
+        //Adds the record of a position, whose score is clamped to a short
+        public synchronized void add(char[][] position, boolean whiteToMove, int score, int result) throws IOException
+        {
+            int offset = records*RECORD_SIZE;
+
+            for (int square = 0; square < 64; square += 2)
+                block[offset + square/2] = (byte)(code(position, square) | code(position, square+1) << 4);
+
+            block[offset+32] = (byte)((whiteToMove ? 1 : 0) | (position[8][3]-'0') << 1 | (position[8][4]-'0') << 3 | (position[8][5]-'0') << 5);
+
+            score = Math.max(Math.min(score, Short.MAX_VALUE), Short.MIN_VALUE);
+            block[offset+33] = (byte)(score >> 8);
+            block[offset+34] = (byte)score;
+            block[offset+35] = (byte)result;
+
+            records++;
+            written++;
+
+            if (records == BLOCK_RECORDS)
+                flushBlock();
+        }
+
+        private static int code(char[][] position, int square)
+        {
+            return PIECES.indexOf(position[square >> 3][square & 7]);
+        }
+
+        //Compresses and writes out the records gathered so far
+        private void flushBlock() throws IOException
+        {
+            if (records == 0)
+                return;
+
+            deflater.reset();
+            deflater.setInput(block, 0, records*RECORD_SIZE);
+            deflater.finish();
+
+            int length = 0;
+
+            while (!deflater.finished())
+            {
+                if (length == compressed.length)
+                    compressed = Arrays.copyOf(compressed, compressed.length*2);
+
+                length += deflater.deflate(compressed, length, compressed.length-length);
+            }
+
+            out.write(ByteBuffer.allocate(8).putInt(records).putInt(length).array());
+            out.write(compressed, 0, length);
+
+            bytes += 8+length;
+            records = 0;
+        }
+
+        public synchronized long getRecords()
+        {
+            return written;
+        }
+
+        //Bytes written to the file so far, not counting the block being gathered
+        public synchronized long getBytes()
+        {
+            return bytes;
+        }
+
+        @Override
+        public synchronized void close() throws IOException
+        {
+            try {
+                flushBlock();
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+    }
+
+    //Reads the records of a file in order, one block inflated at a time. Owned by a single thread.
+    public static class Reader implements Closeable
+    {
+        private final FileChannel channel;
+        private final MappedByteBuffer file;
+        private final Inflater inflater = new Inflater();
+        private final byte[] block = new byte[BLOCK_RECORDS*RECORD_SIZE];
+        private final long count;
+        private int records; //Records in the current block
+        private int record = -1; //Index in the block of the current record
+
+        public Reader(Path path) throws IOException
+        {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+
+            try {
+                if (channel.size() > Integer.MAX_VALUE)
+                    throw new IOException("Training data file over 2 GB: " + path);
+
+                file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+                if (file.remaining() < HEADER_SIZE || file.getInt() != MAGIC)
+                    throw new IOException("Not a training data file: " + path);
+
+                if (file.getInt() != VERSION)
+                    throw new IOException("Unsupported training data version: " + path);
+
+                count = countRecords();
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        //Adds up the counts of the block headers, checking that the blocks fill the file
+        private long countRecords() throws IOException
+        {
+            long total = 0;
+            int position = HEADER_SIZE;
+
+            while (position < file.limit())
+            {
+                if (file.limit()-position < 8)
+                    throw new IOException("Truncated training data block");
+
+                int blockRecords = file.getInt(position);
+                int length = file.getInt(position+4);
+
+                if (blockRecords <= 0 || blockRecords > BLOCK_RECORDS || length < 0 || length > file.limit()-position-8)
+                    throw new IOException("Bad training data block at byte " + position);
+
+                total += blockRecords;
+                position += 8+length;
+            }
+
+            return total;
+        }
+
+        //Number of records in the file
+        public long getCount()
+        {
+            return count;
+        }
+
+        //Moves to the next record, returning false at the end of the file
+        public boolean next() throws IOException
+        {
+            if (++record < records)
+                return true;
+
+            if (!file.hasRemaining())
+                return false;
+
+            records = file.getInt();
+            int length = file.getInt();
+            ByteBuffer compressed = file.slice();
+
+            compressed.limit(length);
+            file.position(file.position()+length);
+            inflater.reset();
+            inflater.setInput(compressed);
+
+            try {
+                int inflated = 0;
+
+                while (inflated < records*RECORD_SIZE && !inflater.finished())
+                    inflated += inflater.inflate(block, inflated, records*RECORD_SIZE-inflated);
+
+                if (inflated != records*RECORD_SIZE)
+                    throw new IOException("Truncated training data block");
+            } catch (DataFormatException ex) {
+                throw new IOException("Corrupt training data block", ex);
+            }
+
+            record = 0;
+            return true;
+        }
+
+        //Sets a board to the current record's position, with its evaluation sums
+        public void getPosition(char[][] position)
+        {
+            int offset = record*RECORD_SIZE;
+
+            for (int square = 0; square < 64; square++)
+                position[square >> 3][square & 7] = PIECES.charAt(block[offset + square/2] >> (square%2*4) & 15);
+
+            int flags = block[offset+32];
+
+            position[8][0] = ' ';
+            position[8][1] = '0';
+            position[8][2] = '0';
+            position[8][3] = (char)('0' + (flags >> 1 & 3));
+            position[8][4] = (char)('0' + (flags >> 3 & 3));
+            position[8][5] = (char)('0' + (flags >> 5 & 3));
+            Evaluation.initialize(position);
+        }
+
+        public boolean isWhiteToMove()
+        {
+            return (block[record*RECORD_SIZE+32] & 1) != 0;
+        }
+
+        //Score of the search, in centipawns from white's point of view
+        public int getScore()
+        {
+            int offset = record*RECORD_SIZE;
+
+            return (short)((block[offset+33] & 0xFF) << 8 | block[offset+34] & 0xFF);
+        }
+
+        //Result of the game for white, in half points
+        public int getResult()
+        {
+            return block[record*RECORD_SIZE+35];
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            inflater.end();
+            channel.close();
+        }
+    }
+}
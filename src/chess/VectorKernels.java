@@ -0,0 +1,164 @@
+/**
+ * Author: Alexander Venezia
+ *
+ * Basic chess game with a computer opponent
+ * The opponent's AI is based on the minmax algorithm.
+ */
+
+package chess;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+Loops of the evaluators written with the JDK's incubating Vector API, for the cases HotSpot does not compile to SIMD instructions by itself.
+The jdk.incubator.vector module is only resolved when the JVM is started with --add-modules jdk.incubator.vector. The kernels are kept in nested classes, which are not loaded
+until a caller has checked AVAILABLE, so without the module the callers run their scalar loops instead.
+*/
+final class VectorKernels {
+    static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private VectorKernels() {} //Not instantiated
+
+    /*
+    Material and piece-square sums of a block of positions, for EvaluationBatch. The values of a square are a table row of 16 entries indexed by piece code, which fills a 512-bit
+    vector of ints, so each lane's value is looked up by one permute. Each int lane of a column read as ints holds the codes of four positions, taken in turn by shifting.
+    */
+    static final class Batch
+    {
+        static final int CHUNK = 64; //Positions read at a time: four codes in each of the 16 lanes. Columns must be a multiple of this long.
+        private static final int CODES = 16; //Entries of a table row
+        private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_512;
+        private static final VectorSpecies<Byte> BYTE_SPECIES = ByteVector.SPECIES_512;
+
+        private Batch() {} //Not instantiated
+
+        //Whether the hardware has 512-bit vectors. With narrower ones a row takes several permutes and blends, and the scalar loop is faster.
+        static boolean isSupported()
+        {
+            return IntVector.SPECIES_PREFERRED.vectorBitSize() >= SPECIES.vectorBitSize();
+        }
+
+        /*
+        Sums the three tables' values over the squares of the first count positions of the columns, into the start of each output array.
+        The outputs are written a whole chunk at a time, so they must be as long as the columns.
+        */
+        static void sums(byte[][] squares, int count, int[] openingTable, int[] endgameTable, int[] phaseTable, int[] openings, int[] endgames, int[] phases)
+        {
+            int lanes = SPECIES.length();
+            int[] laneOpenings = new int[lanes], laneEndgames = new int[lanes], lanePhases = new int[lanes];
+
+            for (int chunk = 0; chunk < count; chunk += CHUNK)
+            {
+                for (int part = 0; part < 4; part++) //Byte part of lane i holds the code of position chunk + 4*i + part
+                {
+                    IntVector opening = IntVector.zero(SPECIES), endgame = opening, phase = opening;
+
+                    for (int square = 0; square < 64; square++)
+                    {
+                        IntVector codes = ByteVector.fromArray(BYTE_SPECIES, squares[square], chunk).reinterpretAsInts().lanewise(VectorOperators.LSHR, 8*part).and(CODES-1);
+                        int row = square*CODES;
+
+                        opening = opening.add(codes.selectFrom(IntVector.fromArray(SPECIES, openingTable, row)));
+                        endgame = endgame.add(codes.selectFrom(IntVector.fromArray(SPECIES, endgameTable, row)));
+                        phase = phase.add(codes.selectFrom(IntVector.fromArray(SPECIES, phaseTable, row)));
+                    }
+
+                    opening.intoArray(laneOpenings, 0);
+                    endgame.intoArray(laneEndgames, 0);
+                    phase.intoArray(lanePhases, 0);
+
+                    for (int lane = 0; lane < lanes; lane++)
+                    {
+                        int index = chunk + 4*lane + part;
+
+                        openings[index] = laneOpenings[lane];
+                        endgames[index] = laneEndgames[lane];
+                        phases[index] = lanePhases[lane];
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+    Accumulator updates and output of Nnue, on int16 values at the preferred vector width. HotSpot vectorizes the scalar updates too, but not the output's clipped sum of products, whose
+    int16 products it widens one lane at a time; here each int lane holds two int16 values, multiplied as the sign-extended low and high halves. The loops end in a scalar tail, as the
+    hidden size need not be a multiple of the lanes.
+    */
+    static final class Network
+    {
+        private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+        private static final VectorSpecies<Integer> INT_SPECIES = VectorSpecies.of(int.class, SPECIES.vectorShape()); //The same vectors read as pairs of values
+
+        private Network() {} //Not instantiated
+
+        //Sets count values of to, from offset, to those of from minus one weight row plus another
+        static void movePiece(short[] from, short[] to, int offset, short[] weights, int remove, int add, int count)
+        {
+            int bound = SPECIES.loopBound(count);
+            int i = 0;
+
+            for (; i < bound; i += SPECIES.length())
+                ShortVector.fromArray(SPECIES, from, offset+i).sub(ShortVector.fromArray(SPECIES, weights, remove+i)).add(ShortVector.fromArray(SPECIES, weights, add+i)).intoArray(to, offset+i);
+
+            for (; i < count; i++)
+                to[offset+i] = (short)(from[offset+i] - weights[remove+i] + weights[add+i]);
+        }
+
+        //Adds a weight row to count values of an accumulator, from offset
+        static void add(short[] accumulator, int offset, short[] weights, int row, int count)
+        {
+            int bound = SPECIES.loopBound(count);
+            int i = 0;
+
+            for (; i < bound; i += SPECIES.length())
+                ShortVector.fromArray(SPECIES, accumulator, offset+i).add(ShortVector.fromArray(SPECIES, weights, row+i)).intoArray(accumulator, offset+i);
+
+            for (; i < count; i++)
+                accumulator[offset+i] += weights[row+i];
+        }
+
+        //Subtracts a weight row from count values of an accumulator, from offset
+        static void subtract(short[] accumulator, int offset, short[] weights, int row, int count)
+        {
+            int bound = SPECIES.loopBound(count);
+            int i = 0;
+
+            for (; i < bound; i += SPECIES.length())
+                ShortVector.fromArray(SPECIES, accumulator, offset+i).sub(ShortVector.fromArray(SPECIES, weights, row+i)).intoArray(accumulator, offset+i);
+
+            for (; i < count; i++)
+                accumulator[offset+i] -= weights[row+i];
+        }
+
+        //Sums the first count values of an accumulator, clipped to between 0 and max, times the weights. The caller makes sure the sum fits in an int.
+        static int output(short[] accumulator, short[] weights, int count, short max)
+        {
+            int bound = SPECIES.loopBound(count);
+            IntVector sum = IntVector.zero(INT_SPECIES);
+            int total;
+            int i = 0;
+
+            for (; i < bound; i += SPECIES.length())
+            {
+                IntVector values = ShortVector.fromArray(SPECIES, accumulator, i).max((short)0).min(max).reinterpretAsInts();
+                IntVector weightPairs = ShortVector.fromArray(SPECIES, weights, i).reinterpretAsInts();
+                IntVector low = values.and(0xFFFF).mul(weightPairs.lanewise(VectorOperators.LSHL, 16).lanewise(VectorOperators.ASHR, 16));
+                IntVector high = values.lanewise(VectorOperators.LSHR, 16).mul(weightPairs.lanewise(VectorOperators.ASHR, 16));
+
+                sum = sum.add(low).add(high);
+            }
+
+            total = sum.reduceLanes(VectorOperators.ADD);
+
+            for (; i < count; i++)
+                total += Math.min(Math.max(accumulator[i], 0), max)*weights[i];
+
+            return total;
+        }
+    }
+}